@@ -208,7 +208,8 @@ public abstract class ConfigProvider extends Descriptor<Config> implements Exten
      * avoid accidental disclosure.
      *
      * @param configFile the file content to be provided
-     * @param workDir target workspace directory
+     * @param workDir target workspace directory, the temporary directory of the workspace; it exists when an
+     *                overriding implementation is called, so files (e.g. private keys) can be created in it
      * @param listener the listener
      * @param tempFiles temp files created by this method, these files will
      *                  be deleted by the caller
@@ -0,0 +1,45 @@
+package org.jenkinsci.lib.configprovider.model;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content of recently placed config files in the JVM of an agent, by the SHA-256 of the content. Bounded by
+ * <code>-Dorg.jenkinsci.lib.configprovider.model.AgentContentCache.maxSize</code> (bytes, 32 MB by default, set on
+ * the agent), least recently used content is evicted first.
+ * <p>
+ * The cache outlives builds, so only content without credentials is put into it, see {@link ConfigFilePlacement}.
+ */
+final class AgentContentCache {
+
+    private static final long MAX_SIZE = Long.getLong(AgentContentCache.class.getName() + ".maxSize", 32L * 1024 * 1024);
+
+    private static final LinkedHashMap<String, byte[]> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long size;
+
+    private AgentContentCache() {
+    }
+
+    @CheckForNull
+    static synchronized byte[] get(@NonNull String hash) {
+        return ENTRIES.get(hash);
+    }
+
+    static synchronized void put(@NonNull String hash, @NonNull byte[] content) {
+        if (content.length > MAX_SIZE || ENTRIES.get(hash) != null) { // get() marks it as recently used
+            return;
+        }
+        ENTRIES.put(hash, content);
+        size += content.length;
+        Iterator<Map.Entry<String, byte[]>> eldest = ENTRIES.entrySet().iterator();
+        while (size > MAX_SIZE && eldest.hasNext()) {
+            size -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+}
@@ -33,6 +33,7 @@ public class ConfigFile implements Serializable {
     private final String fileId;
     protected String targetLocation;
     protected boolean replaceTokens;
+    protected boolean skipIfUnchanged;
 
     public ConfigFile(String fileId, String targetLocation, boolean replaceTokens) {
         this.fileId = fileId;
@@ -52,4 +53,12 @@ public class ConfigFile implements Serializable {
         return replaceTokens;
     }
 
+    /**
+     * @return whether an existing file at the {@link #getTargetLocation()} is left untouched if it already has the
+     * content to be provisioned
+     */
+    public boolean isSkipIfUnchanged() {
+        return skipIfUnchanged;
+    }
+
 }
\ No newline at end of file
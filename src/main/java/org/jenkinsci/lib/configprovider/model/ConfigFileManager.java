@@ -23,31 +23,90 @@
  */
 package org.jenkinsci.lib.configprovider.model;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.IOUtils;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
 import org.jenkinsci.plugins.configfiles.ConfigFiles;
 import org.jenkinsci.plugins.configfiles.buildwrapper.Messages;
+import org.jenkinsci.plugins.configfiles.common.BoundedExecutors;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
 
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
 import edu.umd.cs.findbugs.annotations.Nullable;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.slaves.WorkspaceList;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+import jenkins.security.ImpersonatingExecutorService;
 
 public class ConfigFileManager {
     private final static Logger LOGGER = Logger.getLogger(ConfigFileManager.class.getName());
 
+    /**
+     * Number of files rendered at the same time (across all builds) when several files are provisioned together,
+     * <code>1</code> (the default) renders them one after the other in the calling thread.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Can be changed by tests and from the script console.")
+    public static int PARALLELISM = Integer.getInteger(ConfigFileManager.class.getName() + ".parallelism", 1);
+
+    private static final LongAdder EXPANSIONS = new LongAdder();
+
+    private static final LongAdder SKIPPED_EXPANSIONS = new LongAdder();
+
+    /**
+     * Whether a provider class supplies the stored content, see {@link #suppliesStoredContentOnly(List)}.
+     */
+    private static final ClassValue<Boolean> SUPPLIES_STORED_CONTENT = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("supplyContent", Config.class, Run.class, FilePath.class, TaskListener.class, List.class)
+                        .getDeclaringClass() == ConfigProvider.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * @return how many files with {@link ConfigFile#isReplaceTokens()} have been expanded since startup
+     */
+    @Restricted(NoExternalUse.class)
+    public static long getExpansions() {
+        return EXPANSIONS.sum();
+    }
+
+    /**
+     * @return how many files with {@link ConfigFile#isReplaceTokens()} have not been expanded since startup, as their
+     * content did not contain anything to expand
+     */
+    @Restricted(NoExternalUse.class)
+    public static long getSkippedExpansions() {
+        return SKIPPED_EXPANSIONS.sum();
+    }
+
     /**
      * Provisions (publishes) the given file to the workspace.
      *
@@ -64,55 +123,222 @@ public class ConfigFileManager {
      */
     public static FilePath provisionConfigFile(ConfigFile configFile, @Nullable EnvVars env, Run<?, ?> build, FilePath workspace, TaskListener listener, List<String> tempFiles) throws IOException, InterruptedException {
         Config config = ConfigFiles.getByIdOrNull(build, configFile.getFileId());
+        return provisionConfigFile(configFile, config, env, build, workspace, listener, tempFiles);
+    }
+
+    /**
+     * Provisions (publishes) the given file to the workspace, using a config which has already been resolved by the caller
+     * (e.g. via {@link ConfigFiles#getByIds(Run, java.util.Collection)}).
+     *
+     * @param configFile  the file to be provisioned
+     * @param config the config resolved for {@link ConfigFile#getFileId()}, <code>null</code> if it could not be resolved
+     * @param env enhanced environment to use in the variable substitution
+     * @param build a build being run
+     * @param workspace    target workspace
+     * @param listener     the listener
+     * @param tempFiles    temp files created by this method, these files should be deleted by the caller
+     * @return remote location path of the provided file.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws AbortException       config file has not been found
+     */
+    public static FilePath provisionConfigFile(ConfigFile configFile, @Nullable Config config, @Nullable EnvVars env, Run<?, ?> build, FilePath workspace, TaskListener listener, List<String> tempFiles) throws IOException, InterruptedException {
+        return provisionConfigFiles(Collections.singletonList(configFile), Collections.singletonList(config), env, build, workspace, listener, tempFiles).get(0);
+    }
+
+    /**
+     * Provisions (publishes) the given files to the workspace. The content of all files is rendered first, then all of
+     * them are placed in the workspace with a single call to the agent.
+     *
+     * @param configFiles the files to be provisioned
+     * @param configs     the configs resolved for the {@link ConfigFile#getFileId()}s (e.g. via
+     *                    {@link ConfigFiles#getByIds(Run, java.util.Collection)}), ids which could not be resolved are not contained
+     * @param env         enhanced environment to use in the variable substitution
+     * @param build       a build being run
+     * @param workspace   target workspace
+     * @param listener    the listener
+     * @param tempFiles   temp files created by this method, these files should be deleted by the caller
+     * @return remote location paths of the provided files, in the order of the given files.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws AbortException       config file has not been found
+     */
+    public static List<FilePath> provisionConfigFiles(List<? extends ConfigFile> configFiles, Map<String, Config> configs, @Nullable EnvVars env, Run<?, ?> build, FilePath workspace, TaskListener listener, List<String> tempFiles) throws IOException, InterruptedException {
+        List<Config> resolved = new ArrayList<>(configFiles.size());
+        for (ConfigFile configFile : configFiles) {
+            resolved.add(configs.get(configFile.getFileId()));
+        }
+        return provisionConfigFiles(configFiles, resolved, env, build, workspace, listener, tempFiles);
+    }
 
-        if (config == null) {
-            String message = "not able to provide the file " + configFile + ", can't be resolved by any provider - maybe it got deleted by an administrator?";
-            listener.getLogger().println(message);
-            throw new AbortException(message);
+    private static List<FilePath> provisionConfigFiles(List<? extends ConfigFile> configFiles, List<Config> configs, @Nullable EnvVars env, Run<?, ?> build, FilePath workspace, TaskListener listener, List<String> tempFiles) throws IOException, InterruptedException {
+        for (int i = 0; i < configFiles.size(); i++) {
+            if (configs.get(i) == null) {
+                String message = "not able to provide the file " + configFiles.get(i) + ", can't be resolved by any provider - maybe it got deleted by an administrator?";
+                listener.getLogger().println(message);
+                throw new AbortException(message);
+            }
         }
 
         FilePath workDir = WorkspaceList.tempDir(workspace);
         if (workDir == null) {
             throw new IllegalArgumentException("Don't configure a workspace to be the file system root, it must be in a child directory");
         }
-        workDir.mkdirs();
-
-        final String targetLocation = configFile.getTargetLocation();
-        boolean createTempFile = targetLocation == null || targetLocation.isBlank();
+        if (!suppliesStoredContentOnly(configs)) {
+            // providers may write files (e.g. private keys) to the temporary directory while supplying the content
+            workDir.mkdirs();
+        }
 
-        FilePath target;
-        if (createTempFile) {
-            target = workDir.createTempFile("config", "tmp");
+        List<ConfigFilePlacement.Entry> entries;
+        int parallelism = PARALLELISM;
+        if (parallelism > 1 && configFiles.size() > 1) {
+            entries = renderConcurrently(configFiles, configs, parallelism, env, build, workspace, workDir, listener, tempFiles);
         } else {
-            String expandedTargetLocation;
+            entries = new ArrayList<>(configFiles.size());
+            for (int i = 0; i < configFiles.size(); i++) {
+                entries.add(render(configFiles.get(i), configs.get(i), env, build, workspace, workDir, listener, tempFiles));
+            }
+        }
+
+        // directory creation, target resolution, write and permissions of all files in one go (two if a remote agent
+        // does not have large content cached yet)
+        List<ConfigFilePlacement.Placed> placed = ConfigFilePlacement.place(workspace, workDir, entries);
+
+        List<FilePath> targets = new ArrayList<>(placed.size());
+        for (int i = 0; i < placed.size(); i++) {
+            FilePath target = new FilePath(workspace.getChannel(), placed.get(i).path);
+            LOGGER.log(Level.FINE, "Created file {0} for configuration {1} mapped as {2}", new Object[]{target.getRemote(), configs.get(i), configFiles.get(i)});
+            if (placed.get(i).unchanged) {
+                listener.getLogger().println(Messages.console_output_unchanged(configs.get(i).name, placed.get(i).uri));
+            } else {
+                listener.getLogger().println(Messages.console_output(configs.get(i).name, placed.get(i).uri));
+            }
+            targets.add(target);
+        }
+        return targets;
+    }
+
+    /**
+     * @return <code>true</code> if no provider of the given configs overrides {@link ConfigProvider#supplyContent}, so
+     * that none of them writes to the temporary directory before {@link ConfigFilePlacement} creates it
+     */
+    private static boolean suppliesStoredContentOnly(List<Config> configs) {
+        for (Config config : configs) {
+            if (!SUPPLIES_STORED_CONTENT.get(config.getDescriptor().getClass())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders the given files concurrently. The console output and the temp files of each file are collected separately
+     * and passed on in the order of the files, so that they are the same as if the files were rendered one after the
+     * other. The first failure is rethrown after the remaining files have been cancelled.
+     */
+    private static List<ConfigFilePlacement.Entry> renderConcurrently(List<? extends ConfigFile> configFiles, List<Config> configs, int parallelism, @Nullable EnvVars env, Run<?, ?> build, FilePath workspace, FilePath workDir, TaskListener listener, List<String> tempFiles) throws IOException, InterruptedException {
+        int count = configFiles.size();
+        CompletionService<ConfigFilePlacement.Entry> completion = new ExecutorCompletionService<>(
+                new ImpersonatingExecutorService(BoundedExecutors.get("ConfigFileManager.render", parallelism), Jenkins.getAuthentication2()));
+        List<Future<ConfigFilePlacement.Entry>> futures = new ArrayList<>(count);
+        List<ByteArrayOutputStream> logs = new ArrayList<>(count);
+        List<List<String>> temps = new ArrayList<>(count);
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < count; i++) {
+                ConfigFile configFile = configFiles.get(i);
+                Config config = configs.get(i);
+                ByteArrayOutputStream log = new ByteArrayOutputStream();
+                TaskListener buffered = new StreamTaskListener(log, StandardCharsets.UTF_8);
+                List<String> temp = Collections.synchronizedList(new ArrayList<>());
+                logs.add(log);
+                temps.add(temp);
+                futures.add(completion.submit(() -> {
+                    try {
+                        return render(configFile, config, env, build, workspace, workDir, buffered, temp);
+                    } finally {
+                        buffered.getLogger().flush();
+                    }
+                }));
+            }
+            for (int i = 0; i < count && failure == null; i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                }
+            }
+        } finally {
+            for (Future<ConfigFilePlacement.Entry> future : futures) {
+                future.cancel(true);
+            }
+            for (int i = 0; i < logs.size(); i++) {
+                // a cancelled file may still be rendering, take what it has produced so far
+                listener.getLogger().write(logs.get(i).toByteArray());
+                tempFiles.addAll(temps.get(i));
+            }
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+
+        List<ConfigFilePlacement.Entry> entries = new ArrayList<>(count);
+        for (Future<ConfigFilePlacement.Entry> future : futures) {
+            try {
+                entries.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e); // all of them completed successfully
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Renders the content of a file on the controller and expands its target location.
+     */
+    private static ConfigFilePlacement.Entry render(ConfigFile configFile, Config config, @Nullable EnvVars env, Run<?, ?> build, FilePath workspace, FilePath workDir, TaskListener listener, List<String> tempFiles) throws IOException, InterruptedException {
+        final String targetLocation = configFile.getTargetLocation();
+        String expandedTargetLocation = null;
+        if (targetLocation != null && !targetLocation.isBlank()) {
             try {
                 expandedTargetLocation = TokenMacro.expandAll(build, workspace, listener, targetLocation);
             } catch (MacroEvaluationException e) {
                 listener.getLogger().println("[ERROR] failed to expand variables in target location '" + targetLocation + "' : " + e.getMessage());
                 expandedTargetLocation = targetLocation;
             }
-
-            // Should treat given path as the actual filename unless it has a trailing slash (implying a
-            // directory) or path already exists in workspace as a directory.
-            target = new FilePath(workspace, expandedTargetLocation);
-            String immediateFileName = expandedTargetLocation.substring(expandedTargetLocation.lastIndexOf("/") + 1);
-
-            if (immediateFileName.length() == 0 || (target.exists() && target.isDirectory())) {
-                target = new FilePath(target, config.name.replace(" ", "_"));
-            }
         }
 
         ConfigProvider provider = config.getDescriptor();
         String fileContent = provider.supplyContent(config, build, workDir, listener, tempFiles);
+        final String supplied = fileContent;
+        // content with injected credentials must not be kept in any cache, neither in the templates nor on the agent
+        final boolean sensitive = !provider.getSensitiveContentForMasking(config, build).isEmpty();
 
-        if (configFile.isReplaceTokens()) {
+        if (configFile.isReplaceTokens() && fileContent != null && fileContent.indexOf('$') < 0) {
+            // neither variables nor token macros to expand
+            SKIPPED_EXPANSIONS.increment();
+        } else if (configFile.isReplaceTokens()) {
+            EXPANSIONS.increment();
             try {
                 // JENKINS-57417: 'env' must be processed first, as ${x} is ambiguous between simple variable
                 // references, as expected by EnvVar.expand() / Util.replaceMacro(), and parameterized token macros,
                 // as expected by TokenMacro.expandAll(). Processing with expandAll() first will result in in
                 // MacroEvaluationException being thrown, preventing both types of expansion.
-                if (env != null) {
-                    fileContent = env.expand(fileContent);
+                if (env != null && fileContent != null) {
+                    // same as env.expand(fileContent), without parsing the same stored content again and again
+                    TokenTemplate template = !sensitive && fileContent.equals(config.content)
+                            ? TokenTemplate.of(config.id, fileContent)
+                            : TokenTemplate.compile(fileContent);
+                    fileContent = template.expand(env);
                 }
                 fileContent = TokenMacro.expandAll(build, workspace, listener, fileContent);
             } catch (MacroEvaluationException e) {
@@ -120,23 +346,11 @@ public class ConfigFileManager {
             }
         }
 
-        LOGGER.log(Level.FINE, "Create file {0} for configuration {1} mapped as {2}", new Object[]{target.getRemote(), config, configFile});
-        listener.getLogger().println(Messages.console_output(config.name, target.toURI()));
-        // check if empty file
-        if (fileContent != null) {
-            ByteArrayInputStream bs = new ByteArrayInputStream(fileContent.getBytes("UTF-8"));
-            OutputStream os = target.write();
-            try {
-                IOUtils.copy(bs, os);
-                os.flush();
-            } finally {
-                IOUtils.closeQuietly(bs);
-                IOUtils.closeQuietly(os);
-            }
-        }
-        target.chmod(0640);
+        // content with expanded variables (which may hold secrets as well) must not be kept in the cache of the agent
+        boolean cacheable = workspace.isRemote() && fileContent != null && fileContent.equals(supplied) && !sensitive;
 
-        return target;
+        String defaultName = config.name != null ? config.name.replace(" ", "_") : config.id;
+        return new ConfigFilePlacement.Entry(expandedTargetLocation, defaultName, fileContent, configFile.isSkipIfUnchanged(), cacheable);
     }
 
 }
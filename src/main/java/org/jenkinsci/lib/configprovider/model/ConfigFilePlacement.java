@@ -0,0 +1,369 @@
+package org.jenkinsci.lib.configprovider.model;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.io.input.CharSequenceInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Places rendered config files in a workspace with a single call to the agent: creates the temporary directory,
+ * resolves the targets, writes the content and restricts the permissions of each file.
+ * <p>
+ * Content of at least <code>-Dorg.jenkinsci.lib.configprovider.model.ConfigFilePlacement.cacheThreshold</code> bytes
+ * (16 KB by default, negative to always send the content) placed on a remote agent is only sent as its SHA-256 at
+ * first and written from the {@link AgentContentCache} of the agent. Content the agent does not have is sent with a
+ * second call. Content with injected credentials or expanded variables is never cached, see
+ * {@link Entry#Entry(String, String, String, boolean, boolean)}.
+ * <p>
+ * Content of at least <code>-Dorg.jenkinsci.lib.configprovider.model.ConfigFilePlacement.streamThreshold</code>
+ * characters (1M by default) is neither encoded up front nor cached on the agent, it is encoded while the agent reads
+ * it from a stream and written to the target file as it arrives.
+ * <p>
+ * The SHA-256 of the content of a file to be skipped if unchanged is sent along, the agent compares it with the
+ * existing file and does not write it again if they match (its permissions are restricted all the same).
+ */
+final class ConfigFilePlacement extends MasterToSlaveFileCallable<ConfigFilePlacement.Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigFilePlacement.class.getName());
+
+    private static final int CACHE_THRESHOLD = Integer.getInteger(ConfigFilePlacement.class.getName() + ".cacheThreshold", 16 * 1024);
+
+    private static final int STREAM_THRESHOLD = Integer.getInteger(ConfigFilePlacement.class.getName() + ".streamThreshold", 1024 * 1024);
+
+    private final String workDir;
+
+    private final List<Entry> entries;
+
+    /**
+     * @param workDir the temporary directory of the workspace, see {@link hudson.slaves.WorkspaceList#tempDir(FilePath)}
+     * @param entries the files to place, in order
+     */
+    private ConfigFilePlacement(@NonNull FilePath workDir, @NonNull List<Entry> entries) {
+        this.workDir = workDir.getRemote();
+        this.entries = entries;
+    }
+
+    /**
+     * Places the given files in the workspace.
+     *
+     * @param workspace the workspace, target locations are relative to it
+     * @param workDir   the temporary directory of the workspace, see {@link hudson.slaves.WorkspaceList#tempDir(FilePath)}
+     * @param entries   the files to place, in order
+     * @return where the files have been placed, in the order of the entries
+     */
+    static List<Placed> place(@NonNull FilePath workspace, @NonNull FilePath workDir, @NonNull List<Entry> entries) throws IOException, InterruptedException {
+        boolean cache = workspace.isRemote() && CACHE_THRESHOLD >= 0;
+        List<String> hashes = new ArrayList<>(entries.size());
+        List<String> digests = new ArrayList<>(entries.size());
+        boolean anyHash = false;
+        for (Entry entry : entries) {
+            String hash = null;
+            String digest = null;
+            boolean cached = cache && entry.cacheable && entry.content != null && entry.content.length >= CACHE_THRESHOLD;
+            if (entry.content != null && (entry.skipIfUnchanged || cached)) {
+                String sha256 = sha256(entry.content);
+                if (cached) {
+                    hash = sha256;
+                    anyHash = true;
+                }
+                digest = entry.skipIfUnchanged ? sha256 : null;
+            } else if (entry.skipIfUnchanged) {
+                digest = sha256(entry.text != null ? entry.text : "");
+            }
+            hashes.add(hash);
+            digests.add(digest);
+        }
+
+        if (anyHash) {
+            Result result = workspace.act(new ConfigFilePlacement(workDir, wire(workspace, entries, hashes, digests, true)));
+            if (result.placed != null) {
+                return result.placed;
+            }
+            // the agent does not have some of the content (any more), send all of it (what is cached may be evicted
+            // by what is added) and let the agent keep it
+            LOGGER.log(Level.FINE, "{0} config file(s) not cached on {1}", new Object[]{result.missing.size(), workspace.getChannel()});
+        }
+        return workspace.act(new ConfigFilePlacement(workDir, wire(workspace, entries, hashes, digests, false))).placed;
+    }
+
+    /**
+     * The entries as sent to the agent, with fresh streams for large content.
+     */
+    private static List<Entry> wire(FilePath workspace, List<Entry> entries, List<String> hashes, List<String> digests, boolean byHash) throws IOException {
+        List<Entry> wire = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            String hash = hashes.get(i);
+            if (entry.text != null) {
+                wire.add(new Entry(entry, null, null, digests.get(i), workspace.isRemote() ? new RemoteInputStream(encode(entry.text), RemoteInputStream.Flag.GREEDY) : encode(entry.text)));
+            } else {
+                wire.add(new Entry(entry, hash != null && byHash ? null : entry.content, hash, digests.get(i), null));
+            }
+        }
+        return wire;
+    }
+
+    /**
+     * @return the content, encoded while it is read, a buffer at a time
+     */
+    private static InputStream encode(String text) throws IOException {
+        return CharSequenceInputStream.builder().setCharSequence(text).setCharset(StandardCharsets.UTF_8).get();
+    }
+
+    @Override
+    public Result invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        try {
+            return place(workspace);
+        } finally {
+            for (Entry entry : entries) {
+                if (entry.stream != null) {
+                    entry.stream.close();
+                }
+            }
+        }
+    }
+
+    private Result place(File workspace) throws IOException, InterruptedException {
+        // local file paths, nothing below goes through the channel (but the streams)
+        FilePath base = new FilePath(workspace);
+        FilePath tempDir = new FilePath(new File(workDir));
+
+        // targets already having the content are left alone, their content is not needed
+        List<FilePath> targets = new ArrayList<>(entries.size());
+        boolean[] unchanged = new boolean[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            FilePath target = entry.targetLocation != null ? resolve(base, entry) : null;
+            unchanged[i] = entry.digest != null && target != null && target.exists() && !target.isDirectory()
+                    && entry.digest.equals(sha256(target));
+            targets.add(target);
+        }
+
+        // nothing is placed unless the content of all the files is there
+        List<byte[]> contents = new ArrayList<>(entries.size());
+        Set<String> missing = new HashSet<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            byte[] content = entry.content;
+            if (entry.hash != null && !unchanged[i]) {
+                if (content == null) {
+                    content = AgentContentCache.get(entry.hash);
+                    if (content == null) {
+                        missing.add(entry.hash);
+                    }
+                } else {
+                    AgentContentCache.put(entry.hash, content);
+                }
+            }
+            contents.add(content);
+        }
+        if (!missing.isEmpty()) {
+            return new Result(null, missing);
+        }
+
+        tempDir.mkdirs();
+        List<Placed> placed = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            FilePath target = targets.get(i);
+            if (target == null) {
+                target = tempDir.createTempFile("config", "tmp");
+            }
+            if (!unchanged[i]) {
+                byte[] content = contents.get(i);
+                if (content != null || entry.stream != null) {
+                    try (OutputStream os = target.write()) {
+                        if (content != null) {
+                            os.write(content);
+                        } else {
+                            entry.stream.transferTo(os);
+                        }
+                    }
+                }
+            }
+            // also restricts an unchanged file whose permissions were widened in the meantime
+            target.chmod(0640);
+            placed.add(new Placed(target.getRemote(), target.toURI().toString(), unchanged[i]));
+        }
+        return new Result(placed, null);
+    }
+
+    private static FilePath resolve(FilePath workspace, Entry entry) throws IOException, InterruptedException {
+        // Should treat given path as the actual filename unless it has a trailing slash (implying a
+        // directory) or path already exists in workspace as a directory.
+        FilePath target = new FilePath(workspace, entry.targetLocation);
+        String immediateFileName = entry.targetLocation.substring(entry.targetLocation.lastIndexOf("/") + 1);
+        if (immediateFileName.length() == 0 || (target.exists() && target.isDirectory())) {
+            target = new FilePath(target, entry.defaultName);
+        }
+        return target;
+    }
+
+    /**
+     * A rendered config file to be placed.
+     */
+    static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String targetLocation;
+
+        private final String defaultName;
+
+        private final byte[] content;
+
+        /**
+         * SHA-256 of the content if the agent should take the content from (if {@link #content} is <code>null</code>)
+         * or put it into its {@link AgentContentCache}.
+         */
+        private final String hash;
+
+        /**
+         * SHA-256 of the content if an existing file having the same content should be left untouched.
+         */
+        private final String digest;
+
+        /**
+         * Large content, read by the agent.
+         */
+        @SuppressFBWarnings(value = "SE_BAD_FIELD", justification = "A RemoteInputStream when sent to an agent.")
+        private final InputStream stream;
+
+        /**
+         * Large content, not encoded up front but streamed to the agent, see {@link #STREAM_THRESHOLD}.
+         */
+        private final transient String text;
+
+        private final transient boolean skipIfUnchanged;
+
+        private final transient boolean cacheable;
+
+        /**
+         * @param targetLocation  the expanded target location relative to the workspace, <code>null</code> for a temporary file
+         * @param defaultName     file name to use if the target location is a directory
+         * @param content         the content to write, <code>null</code> to leave the file empty
+         * @param skipIfUnchanged whether to leave an existing file at the target location untouched if it already has the content
+         * @param cacheable       whether the content may be kept in the {@link AgentContentCache}, <code>false</code> if it
+         *                        contains credentials or anything else which must not outlive the build on the agent
+         */
+        Entry(@CheckForNull String targetLocation, @NonNull String defaultName, @CheckForNull String content, boolean skipIfUnchanged, boolean cacheable) {
+            this.targetLocation = targetLocation;
+            this.defaultName = defaultName;
+            this.text = content != null && content.length() >= STREAM_THRESHOLD ? content : null;
+            this.content = content != null && text == null ? content.getBytes(StandardCharsets.UTF_8) : null;
+            this.skipIfUnchanged = skipIfUnchanged && targetLocation != null;
+            this.cacheable = cacheable;
+            this.hash = null;
+            this.digest = null;
+            this.stream = null;
+        }
+
+        private Entry(Entry entry, byte[] content, String hash, String digest, InputStream stream) {
+            this.targetLocation = entry.targetLocation;
+            this.defaultName = entry.defaultName;
+            this.content = content;
+            this.hash = hash;
+            this.digest = digest;
+            this.stream = stream;
+            this.text = null;
+            this.skipIfUnchanged = false;
+            this.cacheable = false;
+        }
+    }
+
+    /**
+     * Where a config file has been placed.
+     */
+    static final class Placed implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String path;
+
+        final String uri;
+
+        /**
+         * Whether the file already had the content and has been left untouched.
+         */
+        final boolean unchanged;
+
+        Placed(String path, String uri, boolean unchanged) {
+            this.path = path;
+            this.uri = uri;
+            this.unchanged = unchanged;
+        }
+    }
+
+    /**
+     * Either where all the files have been placed or the hashes of the content the agent does not have.
+     */
+    static final class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Placed> placed;
+
+        private final Set<String> missing;
+
+        private Result(List<Placed> placed, Set<String> missing) {
+            this.placed = placed;
+            this.missing = missing;
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        return Util.toHexString(sha256().digest(content));
+    }
+
+    private static String sha256(String text) throws IOException {
+        try (InputStream in = encode(text)) {
+            return sha256(in);
+        }
+    }
+
+    private static String sha256(FilePath file) throws IOException, InterruptedException {
+        try (InputStream in = file.read()) {
+            return sha256(in);
+        }
+    }
+
+    private static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.jenkinsci.lib.configprovider.model;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content of a config file split up into literal text and the variable references of
+ * {@link hudson.EnvVars#expand(String)}, so that the variables can be filled in with a single pass over the content.
+ * <p>
+ * Expanding a template gives exactly what {@link hudson.Util#replaceMacro(String, java.util.Map)} gives:
+ * <code>$NAME</code> and <code>${NAME}</code> are replaced if the variable is defined and kept otherwise,
+ * <code>$$</code> becomes <code>$</code>, replaced values are not expanded again.
+ * <p>
+ * Recently used templates of the stored content of configs are kept by config id, bounded by
+ * <code>-Dorg.jenkinsci.lib.configprovider.model.TokenTemplate.maxCachedChars</code> (16M by default).
+ */
+final class TokenTemplate {
+
+    /**
+     * The same as used by {@link hudson.Util#replaceMacro(String, hudson.util.VariableResolver)}.
+     */
+    private static final Pattern VARIABLE = Pattern.compile("\\$([A-Za-z0-9_]+|\\{[A-Za-z0-9_.]+\\}|\\$)");
+
+    private static final long MAX_CACHED_CHARS = Long.getLong(TokenTemplate.class.getName() + ".maxCachedChars", 16L * 1024 * 1024);
+
+    private static final LinkedHashMap<String, TokenTemplate> TEMPLATES = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long cachedChars;
+
+    private final String source;
+
+    /**
+     * Start and end of each variable reference in {@link #source}.
+     */
+    private final int[] starts, ends;
+
+    /**
+     * Name of each variable, <code>null</code> for an escaped <code>$</code>.
+     */
+    private final String[] names;
+
+    private TokenTemplate(String source, int[] starts, int[] ends, String[] names) {
+        this.source = source;
+        this.starts = starts;
+        this.ends = ends;
+        this.names = names;
+    }
+
+    /**
+     * Content with injected credentials must not be passed here, it would be kept in the cache: use
+     * {@link #compile(String)} for it.
+     *
+     * @param id      id of the config the content belongs to
+     * @param content the stored content of the config
+     * @return the (cached) template of the content
+     */
+    @NonNull
+    static TokenTemplate of(@NonNull String id, @NonNull String content) {
+        synchronized (TEMPLATES) {
+            TokenTemplate template = TEMPLATES.get(id);
+            if (template != null && template.source.equals(content)) {
+                return template;
+            }
+        }
+        TokenTemplate template = compile(content);
+        synchronized (TEMPLATES) {
+            TokenTemplate previous = TEMPLATES.remove(id);
+            if (previous != null) {
+                cachedChars -= previous.source.length();
+            }
+            if (content.length() <= MAX_CACHED_CHARS) {
+                TEMPLATES.put(id, template);
+                cachedChars += content.length();
+                Iterator<TokenTemplate> eldest = TEMPLATES.values().iterator();
+                while (cachedChars > MAX_CACHED_CHARS && eldest.hasNext()) {
+                    cachedChars -= eldest.next().source.length();
+                    eldest.remove();
+                }
+            }
+        }
+        return template;
+    }
+
+    @NonNull
+    static TokenTemplate compile(@NonNull String content) {
+        List<int[]> positions = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Matcher m = VARIABLE.matcher(content);
+        while (m.find()) {
+            String key = content.substring(m.start() + 1, m.end());
+            if (key.charAt(0) == '$') {
+                key = null;
+            } else if (key.charAt(0) == '{') {
+                key = key.substring(1, key.length() - 1);
+            }
+            positions.add(new int[]{m.start(), m.end()});
+            names.add(key);
+        }
+        int[] starts = new int[positions.size()];
+        int[] ends = new int[positions.size()];
+        for (int i = 0; i < positions.size(); i++) {
+            starts[i] = positions.get(i)[0];
+            ends[i] = positions.get(i)[1];
+        }
+        return new TokenTemplate(content, starts, ends, names.toArray(new String[0]));
+    }
+
+    /**
+     * @param variables the variables to fill in, usually an {@link hudson.EnvVars}
+     * @return the content with the variables filled in
+     */
+    @NonNull
+    String expand(@NonNull Map<String, String> variables) {
+        if (names.length == 0) {
+            return source;
+        }
+        StringBuilder result = new StringBuilder(source.length() + 16 * names.length);
+        int last = 0;
+        for (int i = 0; i < names.length; i++) {
+            String value = names[i] == null ? "$" : variables.get(names[i]);
+            if (value != null) {
+                result.append(source, last, starts[i]).append(value);
+                last = ends[i];
+            }
+        }
+        return result.append(source, last, source.length()).toString();
+    }
+}
@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.configfiles;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.lib.configprovider.model.Config;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used configs (including their content) by id, bounded by the size of their content rather than by
+ * their number. A config whose content alone exceeds the bound is not cached at all.
+ */
+final class ConfigContentCache {
+
+    private final long maxSize;
+
+    private long size;
+
+    private final LinkedHashMap<String, Config> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxSize upper bound for the (estimated) bytes of content kept
+     */
+    ConfigContentCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @CheckForNull
+    synchronized Config get(@NonNull String id) {
+        return entries.get(id);
+    }
+
+    synchronized void put(@NonNull Config config) {
+        remove(config.id);
+        long weight = weigh(config);
+        if (weight > maxSize) {
+            return;
+        }
+        entries.put(config.id, config);
+        size += weight;
+        Iterator<Map.Entry<String, Config>> eldest = entries.entrySet().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            size -= weigh(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    synchronized void remove(@NonNull String id) {
+        Config removed = entries.remove(id);
+        if (removed != null) {
+            size -= weigh(removed);
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    private static long weigh(Config config) {
+        // two bytes per char, metadata is kept in the store anyway
+        return config.content == null ? 0 : 2L * config.content.length();
+    }
+}
@@ -0,0 +1,194 @@
+package org.jenkinsci.plugins.configfiles;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.util.XStream2;
+import jenkins.model.Jenkins;
+import org.jenkinsci.lib.configprovider.model.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the configs of a store in a directory: one file per config (named by the digest of its id) and a manifest
+ * listing the ids. Every file is written atomically, so saving a config only rewrites that config (and the manifest if
+ * the config is new) and an interrupted write can only damage a single entry.
+ */
+final class ConfigFileDirectory {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigFileDirectory.class.getName());
+
+    private static final String MANIFEST = "manifest.xml";
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    /**
+     * Reads configs without their {@link Config#content}.
+     */
+    private static final XStream2 METADATA_XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("config-files", Manifest.class);
+        METADATA_XSTREAM.omitField(Config.class, "content");
+    }
+
+    private final File dir;
+
+    ConfigFileDirectory(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    boolean exists() {
+        return getManifestFile().exists();
+    }
+
+    XmlFile getManifestFile() {
+        return new XmlFile(XSTREAM, new File(dir, MANIFEST));
+    }
+
+    /**
+     * Reads all configs listed in the manifest, entries which can't be read are skipped.
+     * If the manifest itself can't be read, all config files in the directory are read instead.
+     *
+     * @param withContent <code>false</code> to read the configs without their {@link Config#content}
+     */
+    @NonNull
+    List<Config> load(boolean withContent) {
+        List<Config> configs = new ArrayList<>();
+        List<XmlFile> files = new ArrayList<>();
+        try {
+            Manifest manifest = (Manifest) getManifestFile().read();
+            if (manifest.ids != null) {
+                for (String id : manifest.ids) {
+                    files.add(fileOf(id, withContent));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read " + getManifestFile() + ", loading all config files found in " + dir, e);
+            File[] all = dir.listFiles((d, name) -> name.endsWith(".xml") && !name.equals(MANIFEST));
+            if (all != null) {
+                for (File f : all) {
+                    files.add(new XmlFile(withContent ? Jenkins.XSTREAM2 : METADATA_XSTREAM, f));
+                }
+            }
+        }
+        for (XmlFile file : files) {
+            try {
+                Object o = file.read();
+                if (o instanceof Config && ((Config) o).id != null) {
+                    configs.add((Config) o);
+                } else {
+                    LOGGER.log(Level.WARNING, "Skipping {0}, it does not contain a config file", file);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Skipping " + file + ", failed to read it", e);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * @return the file the config with the given id is stored in
+     */
+    XmlFile getFile(@NonNull String id) {
+        return fileOf(id, true);
+    }
+
+    /**
+     * @return the config with the given id as stored in its file, <code>null</code> if it can't be read
+     */
+    @CheckForNull
+    Config read(@NonNull String id) {
+        XmlFile file = fileOf(id, true);
+        try {
+            Object o = file.read();
+            if (o instanceof Config) {
+                return (Config) o;
+            }
+            LOGGER.log(Level.WARNING, "{0} does not contain a config file", file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of the given config without its {@link Config#content}
+     */
+    @NonNull
+    static Config withoutContent(@NonNull Config config) {
+        return (Config) METADATA_XSTREAM.fromXML(Jenkins.XSTREAM2.toXML(config));
+    }
+
+    void write(@NonNull Config config) throws IOException {
+        fileOf(config.id, true).write(config);
+    }
+
+    void writeManifest(@NonNull Collection<Config> configs) throws IOException {
+        Manifest manifest = new Manifest();
+        for (Config c : configs) {
+            manifest.ids.add(c.id);
+        }
+        getManifestFile().write(manifest);
+    }
+
+    void delete(@NonNull String id) throws IOException {
+        Files.deleteIfExists(fileOf(id, true).getFile().toPath());
+    }
+
+    /**
+     * Writes all given configs and the manifest and deletes the files of configs which are not contained anymore.
+     */
+    void writeAll(@NonNull Collection<Config> configs) throws IOException {
+        for (Config c : configs) {
+            write(c);
+        }
+        writeIndex(configs);
+    }
+
+    /**
+     * Writes the manifest and deletes the files of configs which are not contained anymore, the files of the given
+     * configs are expected to be up to date.
+     */
+    void writeIndex(@NonNull Collection<Config> configs) throws IOException {
+        Set<String> keep = new HashSet<>();
+        keep.add(MANIFEST);
+        for (Config c : configs) {
+            keep.add(fileOf(c.id, true).getFile().getName());
+        }
+        writeManifest(configs);
+        File[] all = dir.listFiles((d, name) -> name.endsWith(".xml") && !keep.contains(name));
+        if (all != null) {
+            for (File f : all) {
+                Files.deleteIfExists(f.toPath());
+            }
+        }
+    }
+
+    private XmlFile fileOf(String id, boolean withContent) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String name = Util.toHexString(digest.digest(id.getBytes(StandardCharsets.UTF_8)));
+            return new XmlFile(withContent ? Jenkins.XSTREAM2 : METADATA_XSTREAM, new File(dir, name + ".xml"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always available", e);
+        }
+    }
+
+    private static final class Manifest {
+        private List<String> ids = new ArrayList<>();
+    }
+}
@@ -11,8 +11,18 @@ import java.util.Map;
  * Created by domi on 17/09/16.
  */
 public interface ConfigFileStore {
+
+    /**
+     * @return a copy of all configs of this store as a {@link java.util.TreeSet} sorted by id; modifying it does not
+     * change the store, use {@link #save(Config)} and {@link #remove(String)} to do so (older versions returned the
+     * backing collection)
+     */
     public Collection<Config> getConfigs();
 
+    /**
+     * @return the configs of the given type, an unmodifiable collection which is not affected by later modifications
+     * of the store
+     */
     public Collection<Config> getConfigs(Class<? extends Descriptor> descriptor);
 
     public Config getById(String id);
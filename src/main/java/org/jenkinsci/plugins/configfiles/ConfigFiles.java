@@ -3,18 +3,23 @@ package org.jenkinsci.plugins.configfiles;
 import com.cloudbees.hudson.plugins.folder.AbstractFolder;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
-import hudson.Plugin;
 import hudson.model.Descriptor;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
 import org.jenkinsci.lib.configprovider.model.Config;
-import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,17 +33,14 @@ public class ConfigFiles {
     private ConfigFiles() {
     }
 
-    private static final boolean folderPluginInstalled() {
-        Plugin folderPlugin = Jenkins.get().getPlugin("cloudbees-folder");
-        return (folderPlugin != null);
-    }
-
     /**
      * Lists all configurations of the given type which are visible in the context of the provided item group.
      * e.g. if itemGroup is of type {@link AbstractFolder} or within an {@link AbstractFolder}, then this method
      * will list all configurations in that folder and in all parent folders up (and including) all configurations on jenkins top level.
      * <p>
-     * This method is typically used to display all available options in the UI.
+     * The configurations are complete, so the content of each of them is read if it is not kept in memory (see
+     * {@link GlobalConfigFiles}). To display the available options in the UI, use
+     * {@link #getConfigMetadataInContext(ItemGroup, Class)}.
      *
      * @param itemGroup  the context
      * @param descriptor configuration type
@@ -46,39 +48,32 @@ public class ConfigFiles {
      */
     @NonNull
     public static List<Config> getConfigsInContext(@Nullable ItemGroup itemGroup, Class<? extends Descriptor> descriptor) {
+        return ConfigStoreChain.withContent(new ArrayList<Config>(getConfigMetadataInContext(itemGroup, descriptor)));
+    }
 
-        List<Config> configs = new ArrayList<Config>();
-
-        while (itemGroup != null) {
-            itemGroup = resolveItemGroup(itemGroup);
-            if (folderPluginInstalled() && itemGroup instanceof AbstractFolder) {
-
-                final AbstractFolder<?> folder = AbstractFolder.class.cast(itemGroup);
-                ConfigFileStore store = folder.getProperties().get(FolderConfigFileProperty.class);
-                if (store != null) {
-                    if (descriptor == null) {
-                        configs.addAll(store.getConfigs());
-                    } else {
-                        configs.addAll(store.getConfigs(descriptor));
-                    }
-                }
-            }
-            if (itemGroup instanceof Item) {
-                itemGroup = Item.class.cast(itemGroup).getParent();
-            }
-            if (itemGroup instanceof Jenkins) {
-                // we are on top scope...
-                if (descriptor == null) {
-                    configs.addAll(GlobalConfigFiles.get().getConfigs());
-                } else {
-                    configs.addAll(GlobalConfigFiles.get().getConfigs(descriptor));
-                }
-                itemGroup = null;
-            }
+    /**
+     * Lists the same configurations as {@link #getConfigsInContext(ItemGroup, Class)}, but without reading any
+     * content: with <code>-Dorg.jenkinsci.plugins.configfiles.GlobalConfigFiles.lazyContent=true</code> the global ones
+     * come without their {@link Config#content}, use {@link #getByIdOrNull(ItemGroup, String)} for it.
+     * <p>
+     * This method is typically used to display all available options in the UI.
+     *
+     * @param itemGroup  the context
+     * @param descriptor configuration type, <code>null</code> for all
+     * @return an unmodifiable list of configuration items of the requested type, visible in the provided context.
+     */
+    @NonNull
+    public static List<Config> getConfigMetadataInContext(@Nullable ItemGroup itemGroup, @Nullable Class<? extends Descriptor> descriptor) {
+        if (itemGroup == null) {
+            return Collections.emptyList();
         }
-
-        Collections.sort(configs, ConfigByNameComparator.INSTANCE);
-        return configs;
+        ConfigLookupCache cache = ConfigLookupCache.getOrNull();
+        String context = itemGroup.getFullName();
+        if (cache != null && context != null) {
+            final ItemGroup start = itemGroup;
+            return cache.getConfigsInContext(context, descriptor, () -> ConfigStoreChain.resolve(start));
+        }
+        return Collections.unmodifiableList(ConfigStoreChain.resolve(itemGroup).getConfigMetadata(descriptor));
     }
 
     /**
@@ -93,35 +88,16 @@ public class ConfigFiles {
      * @throws IllegalArgumentException if while walking up the tree, one of the parents is not either of type {@link AbstractFolder}, {@link Item} or {@link Jenkins}
      */
     public static <T extends Config> T getByIdOrNull(@Nullable ItemGroup itemGroup, @NonNull String configId) {
-
-        while (itemGroup != null) {
-            itemGroup = resolveItemGroup(itemGroup);
-            if (folderPluginInstalled() && itemGroup instanceof AbstractFolder) {
-                final AbstractFolder<?> folder = AbstractFolder.class.cast(itemGroup);
-                ConfigFileStore store = folder.getProperties().get(FolderConfigFileProperty.class);
-                if (store != null) {
-                    Config config = store.getById(configId);
-                    if (config != null) {
-                        return (T) config;
-                    }
-                }
-            }
-            if (itemGroup instanceof Item) {
-                itemGroup = Item.class.cast(itemGroup).getParent();
-            }
-            if (itemGroup instanceof Jenkins) {
-                // we are on top scope...
-                return (T) GlobalConfigFiles.get().getById(configId);
-            } else {
-                if ((itemGroup instanceof AbstractFolder) || (itemGroup instanceof Item)) {
-                    continue;
-                } else {
-                    throw new IllegalArgumentException("can not determine current context/parent for: " + itemGroup.getFullName() + " of type " + itemGroup.getClass());
-                }
-            }
+        if (itemGroup == null || configId == null) {
+            return null;
         }
-
-        return null;
+        ConfigLookupCache cache = ConfigLookupCache.getOrNull();
+        String context = itemGroup.getFullName();
+        if (cache != null && context != null) {
+            final ItemGroup start = itemGroup;
+            return (T) cache.getById(context, configId, () -> ConfigStoreChain.resolve(start));
+        }
+        return (T) ConfigStoreChain.resolve(itemGroup).getById(configId);
     }
 
     /**
@@ -136,7 +112,7 @@ public class ConfigFiles {
      * @throws IllegalArgumentException if while walking up the tree, one of the parents is not either of type {@link AbstractFolder}, {@link Item} or {@link Jenkins}
      */
     public static <T extends Config> T getByIdOrNull(@NonNull Item item, @NonNull String configId) {
-        if (folderPluginInstalled() && item instanceof AbstractFolder) {
+        if (ConfigResolutionContext.get().isFolderPluginInstalled() && item instanceof AbstractFolder) {
             // configfiles defined in the folder should be available in the context of the folder
             return (T) getByIdOrNull((ItemGroup) item, configId);
         }
@@ -172,13 +148,101 @@ public class ConfigFiles {
         return (T) configFile;
     }
 
-    private static ItemGroup resolveItemGroup(ItemGroup itemGroup) {
-        for (ConfigContextResolver resolver : ConfigContextResolver.all()) {
-            ItemGroup resolvedItemGroup = resolver.getConfigContext(itemGroup);
-            if (resolvedItemGroup != null) {
-                return resolvedItemGroup;
+    /**
+     * Used to get hold on several configurations in the given context at once.
+     * Works like {@link #getByIdOrNull(ItemGroup, String)}, but walks up the hierarchy only once for all ids.
+     *
+     * @param itemGroup context to start the lookup from
+     * @param configIds ids of the configurations to search for
+     * @return the configurations found, mapped by their id in the order of the given ids; ids which could not be resolved are not contained, never <code>null</code>
+     * @throws IllegalArgumentException if while walking up the tree, one of the parents is not either of type {@link AbstractFolder}, {@link Item} or {@link Jenkins}
+     */
+    @NonNull
+    public static Map<String, Config> getByIds(@Nullable ItemGroup itemGroup, @NonNull Collection<String> configIds) {
+        Set<String> ids = new LinkedHashSet<>(configIds);
+        ids.remove(null);
+        Map<String, Config> result = new LinkedHashMap<>();
+        if (itemGroup == null || ids.isEmpty()) {
+            return result;
+        }
+
+        ConfigLookupCache cache = ConfigLookupCache.getOrNull();
+        String context = itemGroup.getFullName();
+        Map<String, Config> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        if (cache != null && context != null) {
+            for (String id : ids) {
+                Optional<Config> cached = cache.getIfPresent(context, id);
+                if (cached == null) {
+                    missing.add(id);
+                } else if (cached.isPresent()) {
+                    found.put(id, cached.get());
+                }
             }
+        } else {
+            missing.addAll(ids);
+        }
+
+        if (!missing.isEmpty()) {
+            long generation = cache != null ? cache.getGeneration() : 0;
+            ConfigStoreChain chain = ConfigStoreChain.resolve(itemGroup);
+            for (String id : missing) {
+                ConfigFileStore store = chain.getStoreOf(id);
+                if (cache != null && context != null) {
+                    cache.put(context, id, store, chain, generation);
+                }
+                Config config = store != null ? store.getById(id) : null;
+                if (config != null) {
+                    found.put(id, config);
+                }
+            }
+        }
+
+        for (String id : ids) {
+            Config config = found.get(id);
+            if (config != null) {
+                result.put(id, config);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Used to get hold on several configurations in the given context at once.
+     * Works like {@link #getByIdOrNull(Item, String)}, but walks up the hierarchy only once for all ids.
+     *
+     * @param item      context to start the lookup from
+     * @param configIds ids of the configurations to search for
+     * @return the configurations found, mapped by their id in the order of the given ids; ids which could not be resolved are not contained, never <code>null</code>
+     * @throws IllegalArgumentException if while walking up the tree, one of the parents is not either of type {@link AbstractFolder}, {@link Item} or {@link Jenkins}
+     */
+    @NonNull
+    public static Map<String, Config> getByIds(@NonNull Item item, @NonNull Collection<String> configIds) {
+        if (ConfigResolutionContext.get().isFolderPluginInstalled() && item instanceof AbstractFolder) {
+            // configfiles defined in the folder should be available in the context of the folder
+            return getByIds((ItemGroup) item, configIds);
+        }
+        if (item != null) {
+            return getByIds(item.getParent(), configIds);
+        }
+        return new LinkedHashMap<>();
+    }
+
+    /**
+     * Used to get hold on several configurations in the context of a run at once.
+     * Works like {@link #getByIdOrNull(Run, String)}, but walks up the hierarchy only once for all ids.
+     *
+     * @param build     active to start the lookup from
+     * @param configIds ids of the configurations to search for
+     * @return the configurations found, mapped by their id in the order of the given ids; ids which could not be resolved are not contained, never <code>null</code>
+     * @throws IllegalArgumentException if while walking up the tree, one of the parents is not either of type {@link AbstractFolder}, {@link Item} or {@link Jenkins}
+     */
+    @NonNull
+    public static Map<String, Config> getByIds(@NonNull Run<?, ?> build, @NonNull Collection<String> configIds) {
+        Item parent = build.getParent();
+        if (parent instanceof ItemGroup) {
+            return getByIds((ItemGroup) parent, configIds);
         }
-        return itemGroup;
+        return getByIds(parent, configIds);
     }
 }
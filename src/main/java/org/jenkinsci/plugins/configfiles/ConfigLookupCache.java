@@ -0,0 +1,456 @@
+package org.jenkinsci.plugins.configfiles;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionListListener;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the result of {@link ConfigFiles#getByIdOrNull(ItemGroup, String)} per context (full name of the item group)
+ * and config id, so the folder hierarchy does not have to be walked again for every build. What is cached is the store
+ * the config was found in, the config itself is always taken from the store (which may not keep all content in memory).
+ * <p>
+ * Also keeps the effective view of {@link ConfigFiles#getConfigsInContext(ItemGroup, Class)} per context and config
+ * type: all configs visible in the context, already merged and sorted by name. Views are patched in place when one of
+ * the {@link ConfigFileStore}s they were built from saves or removes a config, so dropdowns don't have to merge and
+ * sort again after every modification. Views hold the configs as the stores keep them in memory, which are completed
+ * before they are handed out, see {@link ConfigStoreChain#withContent(List)}.
+ * <p>
+ * Lookups and views are dropped when an item group on their way up gets a different store (e.g. because the folder
+ * property was added or removed), when an item group is moved, renamed or deleted and when the list of
+ * {@link ConfigContextResolver}s changes.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ConfigLookupCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigLookupCache.class.getName());
+
+    /**
+     * Upper bound for the number of cached lookups and views, the cache is cleared once it grows beyond this size.
+     */
+    private static final int MAX_ENTRIES = Integer.getInteger(ConfigLookupCache.class.getName() + ".maxEntries", 10000);
+
+    private final ConcurrentMap<Key, Resolved> resolved = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<ViewKey, View> views = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every invalidation, used to avoid caching a lookup which raced with a modification.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @CheckForNull
+    public static ConfigLookupCache getOrNull() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return null;
+        }
+        return jenkins.getExtensionList(ConfigLookupCache.class).get(ConfigLookupCache.class);
+    }
+
+    /**
+     * To be called by a store after it saved a config.
+     *
+     * @param store    the modified store
+     * @param previous the config which got replaced, <code>null</code> if the config is new
+     * @param config   the saved config
+     */
+    public static void onSaved(@NonNull ConfigFileStore store, @CheckForNull Config previous, @NonNull Config config) {
+        ConfigLookupCache cache = getOrNull();
+        if (cache != null) {
+            cache.update(store, previous, config);
+        }
+    }
+
+    /**
+     * To be called by a store after it removed a config.
+     *
+     * @param store   the modified store
+     * @param removed the removed config
+     */
+    public static void onRemoved(@NonNull ConfigFileStore store, @NonNull Config removed) {
+        ConfigLookupCache cache = getOrNull();
+        if (cache != null) {
+            cache.update(store, removed, null);
+        }
+    }
+
+    /**
+     * Drops all cached lookups and views.
+     */
+    public static void invalidateAll() {
+        ConfigLookupCache cache = getOrNull();
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Drops all cached lookups and views started from the given context or any context below it.
+     *
+     * @param fullName full name of an item group
+     */
+    public static void invalidateContext(@CheckForNull String fullName) {
+        ConfigLookupCache cache = getOrNull();
+        if (cache != null && fullName != null) {
+            if (fullName.isEmpty()) {
+                cache.clear();
+                return;
+            }
+            String prefix = fullName + "/";
+            cache.generation.incrementAndGet();
+            cache.resolved.keySet().removeIf(key -> key.context.equals(fullName) || key.context.startsWith(prefix));
+            cache.views.keySet().removeIf(key -> key.context.equals(fullName) || key.context.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Drops the cached lookups and views which passed the given item group while it had another store than it has now.
+     *
+     * @param itemGroup the (possibly) modified item group
+     */
+    static void invalidateIfStoreChanged(@NonNull ItemGroup itemGroup) {
+        ConfigLookupCache cache = getOrNull();
+        String fullName = itemGroup.getFullName();
+        if (cache != null && fullName != null) {
+            ConfigFileStore store = ConfigStoreChain.folderStoreOf(itemGroup);
+            cache.generation.incrementAndGet();
+            cache.resolved.values().removeIf(r -> r.chain.isOutdatedBy(fullName, store));
+            cache.views.values().removeIf(v -> v.chain.isOutdatedBy(fullName, store));
+        }
+    }
+
+    /**
+     * Returns the cached config for the given context and id, or resolves and caches it.
+     *
+     * @param context  full name of the item group the lookup starts from
+     * @param configId id of the config
+     * @param chain    resolves the stores visible in the context
+     * @return the resolved config or <code>null</code> if there is none
+     */
+    @CheckForNull
+    Config getById(@NonNull String context, @NonNull String configId, @NonNull Supplier<ConfigStoreChain> chain) {
+        Optional<Config> cached = getIfPresent(context, configId);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        long before = getGeneration();
+        ConfigStoreChain stores = chain.get();
+        ConfigFileStore store = stores.getStoreOf(configId);
+        put(context, configId, store, stores, before);
+        return store != null ? store.getById(configId) : null;
+    }
+
+    /**
+     * @return the cached lookup result, <code>null</code> if nothing is cached for the given context and id.
+     */
+    @CheckForNull
+    Optional<Config> getIfPresent(@NonNull String context, @NonNull String configId) {
+        Resolved r = resolved.get(new Key(context, configId));
+        if (r == null) {
+            return null;
+        }
+        return r.store != null ? Optional.ofNullable(r.store.getById(configId)) : Optional.empty();
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put(String, String, ConfigFileStore, ConfigStoreChain, long)} once the lookup is done.
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches a lookup result, unless the cache was invalidated since the lookup was started.
+     *
+     * @param context    full name of the item group the lookup started from
+     * @param configId   id of the config
+     * @param store      the store the config was found in, <code>null</code> if there is none
+     * @param chain      the stores the config was resolved from
+     * @param generation the generation obtained by {@link #getGeneration()} before the lookup was started
+     */
+    void put(@NonNull String context, @NonNull String configId, @CheckForNull ConfigFileStore store, @NonNull ConfigStoreChain chain, long generation) {
+        if (resolved.size() >= MAX_ENTRIES) {
+            LOGGER.log(Level.FINE, "config lookup cache exceeded {0} entries, clearing it", MAX_ENTRIES);
+            clear();
+        } else if (this.generation.get() == generation) {
+            Key key = new Key(context, configId);
+            resolved.putIfAbsent(key, new Resolved(store, chain));
+            if (this.generation.get() != generation) {
+                // an invalidation happened in between, the entry may already be stale
+                resolved.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the effective view of all configs of the given type visible in the context, sorted by name.
+     *
+     * @param context    full name of the item group
+     * @param descriptor config type, <code>null</code> for all types
+     * @param chain      resolves the stores visible in the context, only called if there is no view yet
+     * @return an unmodifiable list, not to be kept by callers as it is replaced on modifications
+     */
+    @NonNull
+    List<Config> getConfigsInContext(@NonNull String context, @CheckForNull Class<? extends Descriptor> descriptor, @NonNull Supplier<ConfigStoreChain> chain) {
+        ViewKey key = new ViewKey(context, descriptor);
+        View view = views.get(key);
+        if (view != null) {
+            return view.configs;
+        }
+        long before = getGeneration();
+        ConfigStoreChain stores = chain.get();
+        view = new View(stores, descriptor);
+        if (views.size() >= MAX_ENTRIES) {
+            LOGGER.log(Level.FINE, "config view cache exceeded {0} entries, clearing it", MAX_ENTRIES);
+            clear();
+        } else if (generation.get() == before) {
+            views.putIfAbsent(key, view);
+            if (generation.get() != before) {
+                // a modification happened in between and may not have been patched into the new view
+                views.remove(key, view);
+            }
+        }
+        return view.configs;
+    }
+
+    private void update(ConfigFileStore store, @CheckForNull Config previous, @CheckForNull Config config) {
+        generation.incrementAndGet();
+        String configId = config != null ? config.id : previous.id;
+        resolved.entrySet().removeIf(e -> e.getKey().configId.equals(configId) && e.getValue().chain.contains(store));
+        for (View view : views.values()) {
+            if (view.chain.contains(store)) {
+                view.replace(previous, config);
+            }
+        }
+    }
+
+    private void clear() {
+        generation.incrementAndGet();
+        resolved.clear();
+        views.clear();
+    }
+
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void listenToResolverChanges() {
+        ConfigContextResolver.all().addListener(new ExtensionListListener() {
+            @Override
+            public void onChange() {
+                invalidateAll();
+            }
+        });
+    }
+
+    private static final class Key {
+        private final String context;
+        private final String configId;
+
+        Key(String context, String configId) {
+            this.context = context;
+            this.configId = configId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return context.equals(other.context) && configId.equals(other.configId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, configId);
+        }
+    }
+
+    private static final class Resolved {
+        private final ConfigFileStore store;
+        private final ConfigStoreChain chain;
+
+        Resolved(ConfigFileStore store, ConfigStoreChain chain) {
+            this.store = store;
+            this.chain = chain;
+        }
+    }
+
+    private static final class ViewKey {
+        private final String context;
+        private final Class<? extends Descriptor> descriptor;
+
+        ViewKey(String context, Class<? extends Descriptor> descriptor) {
+            this.context = context;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ViewKey)) {
+                return false;
+            }
+            ViewKey other = (ViewKey) o;
+            return context.equals(other.context) && Objects.equals(descriptor, other.descriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, descriptor);
+        }
+    }
+
+    /**
+     * All configs of one type visible in a context, sorted by name. The list is never modified, a patched copy replaces it.
+     */
+    private static final class View {
+        private final ConfigStoreChain chain;
+        private final Class<? extends Descriptor> descriptor;
+        private volatile List<Config> configs;
+
+        View(ConfigStoreChain chain, Class<? extends Descriptor> descriptor) {
+            this.chain = chain;
+            this.descriptor = descriptor;
+            this.configs = Collections.unmodifiableList(chain.getConfigMetadata(descriptor));
+        }
+
+        private boolean matches(@CheckForNull Config config) {
+            return config != null && (descriptor == null || config.getDescriptor().getClass() == descriptor);
+        }
+
+        synchronized void replace(@CheckForNull Config previous, @CheckForNull Config config) {
+            boolean removes = matches(previous);
+            boolean adds = matches(config);
+            if (!removes && !adds) {
+                return;
+            }
+            List<Config> patched = new ArrayList<>(configs);
+            if (removes) {
+                for (int i = 0; i < patched.size(); i++) {
+                    if (patched.get(i) == previous) {
+                        patched.remove(i);
+                        break;
+                    }
+                }
+            }
+            if (adds) {
+                int index = insertionIndex(patched, config);
+                if (index < 0) {
+                    // same name in several stores, the order between them depends on the store, so merge again
+                    configs = Collections.unmodifiableList(chain.getConfigMetadata(descriptor));
+                    return;
+                }
+                patched.add(index, config);
+            }
+            configs = Collections.unmodifiableList(patched);
+        }
+
+        /**
+         * @return the position to insert the config at to keep the list sorted by name, -1 if it is ambiguous
+         */
+        private static int insertionIndex(List<Config> sorted, Config config) {
+            if (config.name == null) {
+                return -1;
+            }
+            int low = 0;
+            int high = sorted.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                Config c = sorted.get(mid);
+                if (c.name == null) {
+                    return -1;
+                }
+                int cmp = ConfigByNameComparator.INSTANCE.compare(c, config);
+                if (cmp == 0) {
+                    return -1;
+                }
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Invalidates lookups and views for item groups which are moved, renamed, deleted, updated or (re-)loaded.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof ItemGroup) {
+                invalidateContext(oldFullName);
+                invalidateContext(newFullName);
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof ItemGroup) {
+                invalidateContext(item.getFullName());
+            }
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            if (item instanceof ItemGroup) {
+                invalidateIfStoreChanged((ItemGroup) item);
+            }
+        }
+
+        @Override
+        public void onLoaded() {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Invalidates lookups and views below an item group whenever it is saved with another store, e.g. because a folder
+     * property was added or removed.
+     */
+    @Extension
+    public static class SaveableListenerImpl extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Item && o instanceof ItemGroup) {
+                invalidateIfStoreChanged((ItemGroup) o);
+            }
+        }
+    }
+}
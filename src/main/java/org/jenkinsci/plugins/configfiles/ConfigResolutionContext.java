@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.configfiles;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ExtensionListListener;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItemDescriptor;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures what {@link ConfigFiles} needs on every step up the item hierarchy: whether the folder plugin is installed
+ * and the registered {@link ConfigContextResolver}s.
+ * <p>
+ * A context is created on first use and dropped whenever the list of resolvers or item types changes (e.g. because a
+ * plugin got installed dynamically), so the lookups don't have to ask the plugin manager and the extension list again
+ * for each level.
+ */
+@Restricted(NoExternalUse.class)
+public final class ConfigResolutionContext {
+
+    private static volatile ConfigResolutionContext current;
+
+    /**
+     * Incremented by {@link #refresh()}, a context captured in an older generation is never used again.
+     */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private final Jenkins jenkins;
+
+    private final long generation;
+
+    private final boolean folderPluginInstalled;
+
+    private final ConfigContextResolver[] resolvers;
+
+    private ConfigResolutionContext(@NonNull Jenkins jenkins, long generation) {
+        this.jenkins = jenkins;
+        this.generation = generation;
+        this.folderPluginInstalled = jenkins.getPlugin("cloudbees-folder") != null;
+        List<ConfigContextResolver> all = new ArrayList<>(ConfigContextResolver.all());
+        this.resolvers = all.toArray(new ConfigContextResolver[0]);
+    }
+
+    /**
+     * @return the context for the running Jenkins instance, never <code>null</code>.
+     */
+    @NonNull
+    public static ConfigResolutionContext get() {
+        Jenkins jenkins = Jenkins.get();
+        long generation = GENERATION.get();
+        ConfigResolutionContext context = current;
+        if (context == null || context.jenkins != jenkins || context.generation != generation) {
+            // captured from the state after the generation was read, if a refresh() happens while capturing, the
+            // context is outdated as soon as it is published and will be captured again on the next call
+            context = new ConfigResolutionContext(jenkins, generation);
+            current = context;
+        }
+        return context;
+    }
+
+    /**
+     * Drops the current context, the next call to {@link #get()} captures a fresh one.
+     */
+    public static void refresh() {
+        GENERATION.incrementAndGet();
+        current = null;
+    }
+
+    public boolean isFolderPluginInstalled() {
+        return folderPluginInstalled;
+    }
+
+    /**
+     * Applies the first {@link ConfigContextResolver} which provides a context for the given item group.
+     *
+     * @param itemGroup the source {@link ItemGroup}
+     * @return the {@link ItemGroup} to retrieve configuration files from, the given one if no resolver applies.
+     */
+    public ItemGroup resolveItemGroup(ItemGroup itemGroup) {
+        for (ConfigContextResolver resolver : resolvers) {
+            ItemGroup resolvedItemGroup = resolver.getConfigContext(itemGroup);
+            if (resolvedItemGroup != null) {
+                return resolvedItemGroup;
+            }
+        }
+        return itemGroup;
+    }
+
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void listenToExtensionChanges() {
+        // anything captured while extensions were still being loaded may be incomplete
+        refresh();
+        ExtensionListListener listener = new ExtensionListListener() {
+            @Override
+            public void onChange() {
+                refresh();
+            }
+        };
+        ConfigContextResolver.all().addListener(listener);
+        // a dynamically installed folder plugin contributes new item types
+        Jenkins.get().getExtensionList(TopLevelItemDescriptor.class).addListener(listener);
+    }
+}
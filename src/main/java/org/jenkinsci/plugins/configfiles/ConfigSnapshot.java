@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.configfiles;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Descriptor;
+import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Immutable content of a {@link ConfigFileStore}: the configs sorted by id, indexed by id and (on first use) by the
+ * class of their {@link ConfigProvider}. Once computed, the provider index is carried over to derived snapshots.
+ * <p>
+ * A store publishes its current snapshot through a volatile field, readers work on whatever snapshot they got without
+ * locking, writers derive a new snapshot with {@link #with(Config)} or {@link #without(Config)} and swap it in.
+ * A snapshot is never modified once published, so it can be iterated while the store is modified.
+ */
+@Restricted(NoExternalUse.class)
+public final class ConfigSnapshot {
+
+    private static final Comparator<Config> COMPARATOR = new ConfigByIdComparator();
+
+    private final TreeSet<Config> configs;
+
+    private final Map<String, Config> byId;
+
+    private volatile Map<Class<? extends Descriptor>, List<Config>> byProvider;
+
+    private ConfigSnapshot(TreeSet<Config> configs) {
+        this(configs, null);
+    }
+
+    private ConfigSnapshot(TreeSet<Config> configs, @CheckForNull Map<Class<? extends Descriptor>, List<Config>> byProvider) {
+        this.configs = configs;
+        this.byProvider = byProvider;
+        Map<String, Config> index = new HashMap<>();
+        for (Config c : configs) {
+            index.put(c.id, c);
+        }
+        this.byId = index;
+    }
+
+    /**
+     * @param configs the configs of the store, <code>null</code> for none
+     * @return a snapshot of the given configs, of several configs with the same id only the first one is kept
+     */
+    @NonNull
+    public static ConfigSnapshot of(@CheckForNull Collection<Config> configs) {
+        TreeSet<Config> set = new TreeSet<>(COMPARATOR);
+        if (configs != null) {
+            set.addAll(configs);
+        }
+        return new ConfigSnapshot(set);
+    }
+
+    /**
+     * @return a new snapshot containing the given config instead of the one with the same id
+     */
+    @NonNull
+    public ConfigSnapshot with(@NonNull Config config) {
+        TreeSet<Config> set = new TreeSet<>(configs);
+        set.remove(config);
+        set.add(config);
+        return new ConfigSnapshot(set, patch(byProvider, byId.get(config.id), config));
+    }
+
+    /**
+     * @return a new snapshot without the given config
+     */
+    @NonNull
+    public ConfigSnapshot without(@NonNull Config config) {
+        TreeSet<Config> set = new TreeSet<>(configs);
+        set.remove(config);
+        return new ConfigSnapshot(set, patch(byProvider, byId.get(config.id), null));
+    }
+
+    /**
+     * @return the configs sorted by id; the (never modified) set itself, meant to be assigned to the persisted field of a store
+     */
+    @NonNull
+    public Collection<Config> getPersistentConfigs() {
+        return configs;
+    }
+
+    @NonNull
+    public Collection<Config> getConfigs() {
+        return Collections.unmodifiableCollection(configs);
+    }
+
+    /**
+     * @return a modifiable copy of the configs sorted by id, in linear time
+     */
+    @NonNull
+    public TreeSet<Config> copyConfigs() {
+        return new TreeSet<>(configs);
+    }
+
+    @NonNull
+    public Collection<Config> getConfigs(@CheckForNull Class<? extends Descriptor> descriptor) {
+        List<Config> cs = getConfigsByProvider().get(descriptor);
+        return cs == null ? Collections.<Config>emptyList() : cs;
+    }
+
+    @CheckForNull
+    public Config getById(@CheckForNull String id) {
+        return id == null ? null : byId.get(id);
+    }
+
+    /**
+     * Derives the provider index of a new snapshot from the one of its predecessor, only the lists of the providers of
+     * the replaced and the added config are copied.
+     *
+     * @return the patched index, <code>null</code> if the predecessor did not compute its index yet
+     */
+    @CheckForNull
+    private static Map<Class<? extends Descriptor>, List<Config>> patch(@CheckForNull Map<Class<? extends Descriptor>, List<Config>> index,
+                                                                      @CheckForNull Config removed, @CheckForNull Config added) {
+        if (index == null) {
+            return null;
+        }
+        Map<Class<? extends Descriptor>, List<Config>> patched = new HashMap<>(index);
+        if (removed != null) {
+            Class<? extends Descriptor> provider = removed.getDescriptor().getClass();
+            List<Config> cs = new ArrayList<>(patched.getOrDefault(provider, Collections.emptyList()));
+            cs.remove(removed);
+            if (cs.isEmpty()) {
+                patched.remove(provider);
+            } else {
+                patched.put(provider, Collections.unmodifiableList(cs));
+            }
+        }
+        if (added != null) {
+            Class<? extends Descriptor> provider = added.getDescriptor().getClass();
+            List<Config> cs = new ArrayList<>(patched.getOrDefault(provider, Collections.emptyList()));
+            int position = Collections.binarySearch(cs, added, COMPARATOR);
+            cs.add(position < 0 ? -position - 1 : position, added);
+            patched.put(provider, Collections.unmodifiableList(cs));
+        }
+        return Collections.unmodifiableMap(patched);
+    }
+
+    private Map<Class<? extends Descriptor>, List<Config>> getConfigsByProvider() {
+        Map<Class<? extends Descriptor>, List<Config>> index = byProvider;
+        if (index == null) {
+            // racing threads compute the same index, no need to lock
+            Map<Class<? extends Descriptor>, List<Config>> grouped = new HashMap<>();
+            for (Config c : configs) {
+                grouped.computeIfAbsent(c.getDescriptor().getClass(), k -> new ArrayList<>()).add(c);
+            }
+            index = new HashMap<>();
+            for (Map.Entry<Class<? extends Descriptor>, List<Config>> entry : grouped.entrySet()) {
+                index.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+            }
+            index = Collections.unmodifiableMap(index);
+            byProvider = index;
+        }
+        return index;
+    }
+}
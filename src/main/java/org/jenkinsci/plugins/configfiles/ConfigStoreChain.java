@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.configfiles;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import jenkins.model.Jenkins;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link ConfigFileStore}s visible from a context, nearest first and {@link GlobalConfigFiles} last, together with
+ * the folders which were passed on the way up (and the store they had at that time).
+ */
+final class ConfigStoreChain {
+
+    private final List<ConfigFileStore> stores;
+
+    /**
+     * full name of each folder passed, mapped to its {@link FolderConfigFileProperty} or <code>null</code> if it had none.
+     */
+    private final Map<String, ConfigFileStore> folders;
+
+    private ConfigStoreChain(List<ConfigFileStore> stores, Map<String, ConfigFileStore> folders) {
+        this.stores = Collections.unmodifiableList(stores);
+        this.folders = folders;
+    }
+
+    /**
+     * Walks up from the given context until the Jenkins top level is reached.
+     *
+     * @param itemGroup context to start from
+     * @return the stores visible in the context
+     * @throws IllegalArgumentException if while walking up the tree, one of the parents is not either of type {@link AbstractFolder}, {@link Item} or {@link Jenkins}
+     */
+    @NonNull
+    static ConfigStoreChain resolve(@CheckForNull ItemGroup itemGroup) {
+        final ConfigResolutionContext resolution = ConfigResolutionContext.get();
+        List<ConfigFileStore> stores = new ArrayList<>();
+        Map<String, ConfigFileStore> folders = new HashMap<>();
+
+        while (itemGroup != null) {
+            itemGroup = resolution.resolveItemGroup(itemGroup);
+            if (resolution.isFolderPluginInstalled() && itemGroup instanceof AbstractFolder) {
+                final AbstractFolder<?> folder = AbstractFolder.class.cast(itemGroup);
+                ConfigFileStore store = folder.getProperties().get(FolderConfigFileProperty.class);
+                folders.put(folder.getFullName(), store);
+                if (store != null) {
+                    stores.add(store);
+                }
+            }
+            if (itemGroup instanceof Item) {
+                itemGroup = Item.class.cast(itemGroup).getParent();
+            }
+            if (itemGroup instanceof Jenkins) {
+                // we are on top scope...
+                stores.add(GlobalConfigFiles.get());
+                itemGroup = null;
+            } else if (itemGroup != null && !(itemGroup instanceof AbstractFolder) && !(itemGroup instanceof Item)) {
+                throw new IllegalArgumentException("can not determine current context/parent for: " + itemGroup.getFullName() + " of type " + itemGroup.getClass());
+            }
+        }
+
+        return new ConfigStoreChain(stores, folders);
+    }
+
+    /**
+     * @return the folder store of the given item group, <code>null</code> if it is not a folder or has no store.
+     */
+    @CheckForNull
+    static ConfigFileStore folderStoreOf(@NonNull ItemGroup itemGroup) {
+        if (ConfigResolutionContext.get().isFolderPluginInstalled() && itemGroup instanceof AbstractFolder) {
+            return AbstractFolder.class.cast(itemGroup).getProperties().get(FolderConfigFileProperty.class);
+        }
+        return null;
+    }
+
+    List<ConfigFileStore> getStores() {
+        return stores;
+    }
+
+    boolean contains(ConfigFileStore store) {
+        for (ConfigFileStore s : stores) {
+            if (s == store) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if the given folder was passed and had a different store at that time.
+     */
+    boolean isOutdatedBy(String folderFullName, @CheckForNull ConfigFileStore currentStore) {
+        return folders.containsKey(folderFullName) && folders.get(folderFullName) != currentStore;
+    }
+
+    /**
+     * @return the nearest config with the given id, <code>null</code> if there is none.
+     */
+    @CheckForNull
+    Config getById(@NonNull String configId) {
+        for (ConfigFileStore store : stores) {
+            Config config = store.getById(configId);
+            if (config != null) {
+                return config;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the nearest store containing a config with the given id, <code>null</code> if there is none.
+     */
+    @CheckForNull
+    ConfigFileStore getStoreOf(@NonNull String configId) {
+        for (ConfigFileStore store : stores) {
+            if (store.getById(configId) != null) {
+                return store;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all configs of the given type in all stores, sorted by name; the global ones without content if
+     * {@link GlobalConfigFiles} does not keep it in memory, see {@link #withContent(List)}.
+     */
+    @NonNull
+    List<Config> getConfigMetadata(@CheckForNull Class<? extends Descriptor> descriptor) {
+        List<Config> configs = new ArrayList<Config>();
+        for (ConfigFileStore store : stores) {
+            if (store instanceof GlobalConfigFiles) {
+                configs.addAll(((GlobalConfigFiles) store).getConfigMetadata(descriptor));
+            } else if (descriptor == null) {
+                configs.addAll(store.getConfigs());
+            } else {
+                configs.addAll(store.getConfigs(descriptor));
+            }
+        }
+        Collections.sort(configs, ConfigByNameComparator.INSTANCE);
+        return configs;
+    }
+
+    /**
+     * Replaces the configs returned by {@link #getConfigMetadata(Class)} without content by the complete ones.
+     *
+     * @return the given list
+     */
+    @NonNull
+    static List<Config> withContent(@NonNull List<Config> configs) {
+        GlobalConfigFiles global = GlobalConfigFiles.get();
+        for (int i = 0; i < configs.size(); i++) {
+            configs.set(i, global.withContent(configs.get(i)));
+        }
+        return configs;
+    }
+}
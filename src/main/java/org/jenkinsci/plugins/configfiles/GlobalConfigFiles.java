@@ -1,10 +1,15 @@
 package org.jenkinsci.plugins.configfiles;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.BulkChange;
 import hudson.Extension;
 import hudson.ExtensionList;
+import hudson.XmlFile;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import hudson.model.Descriptor;
+import hudson.model.listeners.SaveableListener;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
 import org.jenkinsci.Symbol;
@@ -12,6 +17,10 @@ import org.jenkinsci.lib.configprovider.AbstractConfigProviderImpl;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
 import org.jenkinsci.lib.configprovider.model.Config;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -20,22 +29,77 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * ConfigFileStore holding config files saved on top level (Jenkins instance).
  * <p>
+ * The configs are persisted in a {@link ConfigFileDirectory} next to the usual global configuration file, saving or
+ * removing a config only writes its own file (and the manifest if the ids changed). Older versions only read that
+ * single file: all configs are still written to it on migration and by {@link #save()}, and with every change with
+ * <code>-Dorg.jenkinsci.plugins.configfiles.GlobalConfigFiles.writeLegacyFile=true</code>, so that an older version
+ * finds them after a downgrade. The single file is marked with {@link #STORAGE_VERSION}, which older versions drop when
+ * they write it; once upgraded again the configs are migrated from an unmarked file again.
+ * <p>
+ * With <code>-Dorg.jenkinsci.plugins.configfiles.GlobalConfigFiles.lazyContent=true</code> only the metadata of the
+ * configs is kept in memory. {@link #getById(String)}, {@link #getConfigs()} and {@link #getConfigs(Class)} return
+ * complete configs, their content read from disk on demand and kept in a cache bounded by
+ * <code>org.jenkinsci.plugins.configfiles.GlobalConfigFiles.contentCacheSize</code> (bytes, 32 MB by default), so
+ * listing all configs reads all of them. {@link #getGroupedConfigs()} and
+ * {@link ConfigFiles#getConfigMetadataInContext(hudson.model.ItemGroup, Class)} for the UI and the lookups within this
+ * plugin work on the configs without {@link Config#content}, see {@link #getConfigMetadata(Class)}.
+ * <p>
  * Created by domi on 17/09/16.
  */
 @Extension(ordinal = 5)
 @Symbol("globalConfigFiles")
 public class GlobalConfigFiles extends GlobalConfiguration implements ConfigFileStore {
 
+    private static final Logger LOGGER = Logger.getLogger(GlobalConfigFiles.class.getName());
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Can be changed by tests, requires a reload.")
+    static boolean LAZY_CONTENT = Boolean.getBoolean(GlobalConfigFiles.class.getName() + ".lazyContent");
+
+    private static final boolean WRITE_LEGACY_FILE = Boolean.getBoolean(GlobalConfigFiles.class.getName() + ".writeLegacyFile");
+
+    /**
+     * Version of the storage in a {@link ConfigFileDirectory}, written to the single file to tell it from one written
+     * by an older version.
+     */
+    static final int STORAGE_VERSION = 2;
+
+    private static final long CONTENT_CACHE_SIZE = Long.getLong(GlobalConfigFiles.class.getName() + ".contentCacheSize", 32L * 1024 * 1024);
+
     private static Comparator<Config> COMPARATOR = new ConfigByIdComparator();
 
     private static ConfigProviderComparator CONFIGPROVIDER_COMPARATOR = new ConfigProviderComparator();
 
+    /**
+     * Declared first to be written first, so that {@link #isWrittenByOlderVersion(File)} finds it right away.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "Only written to the single file.")
+    private Integer storageVersion;
+
     private Collection<Config> configs = new TreeSet<>(COMPARATOR);
 
+    /**
+     * The current content of the store, {@link #configs} always refers to its (never modified) set.
+     */
+    private transient volatile ConfigSnapshot snapshot = ConfigSnapshot.of(null);
+
+    private transient ConfigFileDirectory directory;
+
+    /**
+     * Complete configs recently returned by {@link #getById(String)}, only used with {@link #LAZY_CONTENT}.
+     */
+    private final transient ConfigContentCache contents = new ConfigContentCache(CONTENT_CACHE_SIZE);
+
     public static GlobalConfigFiles get() {
         GlobalConfigFiles instance = Jenkins.get().getExtensionList(GlobalConfigFiles.class).get(GlobalConfigFiles.class);
         if (instance == null) { // TODO would be useful to have an ExtensionList.getOrFail
@@ -45,31 +109,36 @@ public class GlobalConfigFiles extends GlobalConfiguration implements ConfigFile
     }
 
     @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
-    public void migrate() {
+    public synchronized void migrate() {
         // migrate old data storage (file per provider) into new storage (one file per scope - global scope)
         ExtensionList<ConfigProvider> allProviders = ConfigProvider.all();
+        List<Config> migrated = new ArrayList<>();
         for (ConfigProvider p : allProviders) {
             for (Config c : ((AbstractConfigProviderImpl) p).getConfigs().values()) {
                 Config converted = ((AbstractConfigProviderImpl) p).convert(c);
-                configs.add(converted);
+                migrated.add(converted);
             }
         }
-        if (configs.size() > 0) {
+        if (migrated.size() > 0) {
+            migrated.addAll(0, configs);
+            configs = migrated;
             // in this case we migrated data from the old format to the new store
             // this only happens once
+            rebuildIndex();
             save();
             for (ConfigProvider p : allProviders) {
                 p.clearOldDataStorage();
             }
         } else {
             load();
+            rebuildIndex();
         }
     }
 
     @Override
     public Map<ConfigProvider, Collection<Config>> getGroupedConfigs() {
         Map<ConfigProvider, Collection<Config>> grouped = new TreeMap<ConfigProvider, Collection<Config>>(CONFIGPROVIDER_COMPARATOR);
-        for (Config c : configs) {
+        for (Config c : snapshot.getConfigs()) {
             Collection<Config> configs = grouped.get(c.getProvider());
             if (configs == null) {
                 configs = new ArrayList<>();
@@ -85,67 +154,324 @@ public class GlobalConfigFiles extends GlobalConfiguration implements ConfigFile
         return grouped;
     }
 
+    /**
+     * @return a copy of all configs as a {@link TreeSet} sorted by id, see {@link ConfigFileStore#getConfigs()}
+     */
     @Override
     public Collection<Config> getConfigs() {
-        return configs;
+        if (!LAZY_CONTENT) {
+            return snapshot.copyConfigs();
+        }
+        TreeSet<Config> complete = new TreeSet<>(COMPARATOR);
+        for (Config c : snapshot.getConfigs()) {
+            complete.add(withContent(c));
+        }
+        return complete;
     }
 
     /* only for CasC (Configuration as Code Plugin) */
-    public void setConfigs(Collection<Config> configs) {
+    public synchronized void setConfigs(Collection<Config> configs) {
         this.configs = configs;
         readResolve(); // ensure configs collection is a TreeSet
     }
 
     @Override
     public Collection<Config> getConfigs(Class<? extends Descriptor> descriptor) {
-        List<Config> cs = new ArrayList<Config>();
+        Collection<Config> configs = snapshot.getConfigs(descriptor);
+        if (!LAZY_CONTENT) {
+            return configs;
+        }
+        List<Config> complete = new ArrayList<>(configs.size());
         for (Config c : configs) {
-            if (c.getDescriptor().getClass().equals(descriptor)) {
-                cs.add(c);
-            }
+            complete.add(withContent(c));
         }
-        return cs;
+        return Collections.unmodifiableList(complete);
+    }
+
+    /**
+     * The configs as they are kept in memory, without {@link Config#content} with {@link #LAZY_CONTENT}: for views
+     * which only need the metadata, complete a config with {@link #withContent(Config)} before handing it out.
+     *
+     * @param descriptor the type of the configs, <code>null</code> for all
+     */
+    Collection<Config> getConfigMetadata(@CheckForNull Class<? extends Descriptor> descriptor) {
+        return descriptor == null ? snapshot.getConfigs() : snapshot.getConfigs(descriptor);
+    }
+
+    /**
+     * @return the complete config if the given one is kept without content by this store, otherwise the given one
+     */
+    Config withContent(Config config) {
+        if (!LAZY_CONTENT || config.content != null || snapshot.getById(config.id) != config) {
+            return config;
+        }
+        Config complete = getById(config.id);
+        return complete != null ? complete : config;
     }
 
     @Override
     public Config getById(String id) {
-        if (id != null) {
-            for (Config c : configs) {
-                if (id.equals(c.id)) {
-                    return c;
+        Config config = snapshot.getById(id);
+        if (config == null || config.content != null || !LAZY_CONTENT) {
+            return config;
+        }
+        Config complete = contents.get(id);
+        if (complete == null) {
+            complete = getDirectory().read(id);
+            if (complete == null) {
+                return null;
+            }
+            synchronized (this) {
+                // don't cache what was replaced in the meantime
+                if (snapshot.getById(id) == config) {
+                    contents.put(complete);
                 }
             }
         }
-        return null;
+        return complete;
     }
 
     @Override
-    public void save(Config config) {
-        configs.remove(config);
-        configs.add(config);
-        save();
+    public synchronized void save(Config config) {
+        Config previous = snapshot.getById(config.id);
+        Config stored = LAZY_CONTENT ? withoutContent(config) : config;
+        ConfigFileDirectory dir = getDirectory();
+        boolean written = false;
+        // the content is not kept in the store with LAZY_CONTENT, so it has to be written right away even in a bulk change
+        if (LAZY_CONTENT || !BulkChange.contains(this)) {
+            try {
+                dir.write(config);
+                written = true;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save config file " + config.id, e);
+            }
+        }
+        if (LAZY_CONTENT) {
+            contents.put(config);
+        }
+        // only published once written, getById must not find the new config and read the previous content from disk
+        publish(snapshot.with(stored));
+        ConfigLookupCache.onSaved(this, previous, stored);
+        if (!written) {
+            return;
+        }
+        try {
+            if (!dir.exists()) {
+                writeAll(dir);
+            } else if (previous == null) {
+                dir.writeManifest(snapshot.getConfigs());
+            }
+            if (WRITE_LEGACY_FILE) {
+                writeLegacyFile(dir);
+            }
+            SaveableListener.fireOnChange(this, dir.getFile(config.id));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save config file " + config.id, e);
+        }
     }
 
     @Override
-    public void remove(String id) {
-        Config c = getById(id);
+    public synchronized void remove(String id) {
+        Config c = snapshot.getById(id);
         if (c != null) {
-            configs.remove(c);
-            save();
+            publish(snapshot.without(c));
+            contents.remove(id);
+            ConfigLookupCache.onRemoved(this, c);
+            if (BulkChange.contains(this)) {
+                return;
+            }
+            ConfigFileDirectory dir = getDirectory();
+            try {
+                if (!dir.exists()) {
+                    writeAll(dir);
+                } else {
+                    // the manifest first, an orphaned file does no harm
+                    dir.writeManifest(snapshot.getConfigs());
+                    dir.delete(id);
+                }
+                if (WRITE_LEGACY_FILE) {
+                    writeLegacyFile(dir);
+                }
+                SaveableListener.fireOnChange(this, dir.getManifestFile());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove config file " + id, e);
+            }
         }
     }
 
+    /**
+     * Writes all configs, also to the single file older versions read them from; prefer {@link #save(Config)} and
+     * {@link #remove(String)} which only write what changed.
+     */
+    @Override
+    public synchronized void save() {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        ConfigFileDirectory dir = getDirectory();
+        try {
+            writeAll(dir);
+            writeLegacyFile(dir);
+            SaveableListener.fireOnChange(this, dir.getManifestFile());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + dir.getManifestFile(), e);
+        }
+    }
+
+    @Override
+    public synchronized void load() {
+        ConfigFileDirectory dir = getDirectory();
+        XmlFile legacy = getConfigFile();
+        if (dir.exists()) {
+            if (!legacy.exists() || !isWrittenByOlderVersion(legacy.getFile())) {
+                configs = dir.load(!LAZY_CONTENT);
+                contents.clear();
+                rebuildIndex();
+                return;
+            }
+            LOGGER.log(Level.WARNING, "{0} was written by an older version of the plugin, migrating the config files from it again", legacy);
+        }
+        if (!legacy.exists()) {
+            return;
+        }
+        // all configs were stored in one file before, copy them to the directory
+        try {
+            legacy.unmarshal(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + legacy, e);
+            return;
+        }
+        contents.clear();
+        rebuildIndex();
+        try {
+            writeAll(dir);
+            // marks the single file as migrated
+            writeLegacyFile(dir);
+            LOGGER.log(Level.INFO, "Migrated {0} config files from {1}", new Object[] {snapshot.getConfigs().size(), legacy});
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to migrate " + legacy + ", will try again on next start", e);
+        }
+    }
+
+    /**
+     * Writes all configs which are completely in memory, with {@link #LAZY_CONTENT} they are replaced by their
+     * metadata afterwards.
+     */
+    private void writeAll(ConfigFileDirectory dir) throws IOException {
+        if (!LAZY_CONTENT) {
+            dir.writeAll(snapshot.getConfigs());
+            return;
+        }
+        List<Config> stored = new ArrayList<>();
+        boolean written = false;
+        for (Config c : snapshot.getConfigs()) {
+            if (c.content != null) {
+                dir.write(c);
+                stored.add(withoutContent(c));
+                written = true;
+            } else {
+                // only metadata in memory, its file is up to date
+                stored.add(c);
+            }
+        }
+        dir.writeIndex(stored);
+        if (written) {
+            configs = stored;
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Writes all configs to the single file older versions read them from, marked with {@link #STORAGE_VERSION}. With
+     * {@link #LAZY_CONTENT} the content of every config is read from the directory for it.
+     */
+    private void writeLegacyFile(ConfigFileDirectory dir) throws IOException {
+        Collection<Config> persisted = configs;
+        if (LAZY_CONTENT) {
+            TreeSet<Config> complete = new TreeSet<>(COMPARATOR);
+            for (Config c : snapshot.getConfigs()) {
+                Config read = c.content != null ? c : contents.get(c.id);
+                if (read == null) {
+                    read = dir.read(c.id);
+                }
+                complete.add(read != null ? read : c);
+            }
+            configs = complete;
+        }
+        storageVersion = STORAGE_VERSION;
+        try {
+            getConfigFile().write(this);
+        } finally {
+            configs = persisted;
+        }
+    }
+
+    /**
+     * Older versions don't know {@link #storageVersion}, so they drop it when they write the single file.
+     *
+     * @return <code>true</code> if the single file has no {@link #storageVersion}
+     */
+    static boolean isWrittenByOlderVersion(File legacy) {
+        XMLInputFactory inputFactory = XMLInputFactory.newDefaultFactory();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try (InputStream in = Files.newInputStream(legacy.toPath())) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        if (++depth == 2 && "storageVersion".equals(reader.getLocalName())) {
+                            return false;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + legacy + ", ignoring it", e);
+            return false;
+        }
+        return true;
+    }
+
+    private static Config withoutContent(Config config) {
+        try {
+            return ConfigFileDirectory.withoutContent(config);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Keeping the content of " + config.id + " in memory", e);
+            return config;
+        }
+    }
+
+    ConfigFileDirectory getDirectory() {
+        if (directory == null) {
+            directory = new ConfigFileDirectory(new File(Jenkins.get().getRootDir(), getId()));
+        }
+        return directory;
+    }
+
     @Override
     public String getDisplayName() {
         return Messages.display_name();
     }
 
     private Object readResolve() {
-        if (!(configs instanceof TreeSet)) {
-            Collection<Config> newConfigs = new TreeSet<>(COMPARATOR);
-            newConfigs.addAll(configs);
-            configs = newConfigs;
-        }
+        rebuildIndex();
         return this;
     }
+
+    private void rebuildIndex() {
+        ConfigLookupCache.invalidateAll();
+        publish(ConfigSnapshot.of(configs));
+    }
+
+    private void publish(ConfigSnapshot next) {
+        configs = next.getPersistentConfigs();
+        snapshot = next;
+    }
 }
@@ -55,11 +55,13 @@ import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import org.jenkinsci.lib.configprovider.model.Config;
-import org.jenkinsci.plugins.configfiles.ConfigFiles;
+import org.jenkinsci.plugins.configfiles.common.DeleteFiles;
 import org.jenkinsci.plugins.credentialsbinding.masking.SecretPatterns;
 
 public class ConfigFileBuildWrapper extends SimpleBuildWrapper {
 
+    private static final Logger LOGGER = Logger.getLogger(ConfigFileBuildWrapper.class.getName());
+
     private List<ManagedFile> managedFiles = new ArrayList<ManagedFile>();
 
     @DataBoundConstructor
@@ -91,8 +93,13 @@ public class ConfigFileBuildWrapper extends SimpleBuildWrapper {
 
     private synchronized List<String> getSecretValuesToMask(Run<?,?> build) {
         List<String> seecretsToMask = new ArrayList<>();
+        Map<String, Config> configs = ManagedFileUtil.resolveConfigs(managedFiles, build);
         for (ManagedFile managedFile : managedFiles) {
-            Config config = ConfigFiles.getByIdOrNull(build, managedFile.getFileId());
+            if (!configs.containsKey(managedFile.getFileId())) {
+                LOGGER.log(Level.FINE, "Could not find config {0} for {1}, none of its content is masked", new Object[]{managedFile.getFileId(), build});
+            }
+        }
+        for (Config config : configs.values()) {
             seecretsToMask.addAll(config.getProvider().getSensitiveContentForMasking(config, build));
         }
         return seecretsToMask;
@@ -140,9 +147,14 @@ public class ConfigFileBuildWrapper extends SimpleBuildWrapper {
         @Override
         public void tearDown(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
             listener.getLogger().println("Deleting " + tempFiles.size() + " temporary files");
-            for (String tempFile : tempFiles) {
-                LOGGER.log(Level.FINE, "Delete: {0}", new Object[]{tempFile});
-                new FilePath(workspace, tempFile).delete();
+            LOGGER.log(Level.FINE, "Delete: {0}", new Object[]{tempFiles});
+            // all of them with a single call, then report what could not be deleted
+            DeleteFiles.Result result = DeleteFiles.delete(workspace, tempFiles);
+            listener.getLogger().println("Deleted " + result.getDeleted() + " of " + tempFiles.size() + " temporary files, "
+                    + result.getFailures().size() + " could not be deleted");
+            String failures = result.describeFailures();
+            if (failures != null) {
+                throw new IOException("Deleted " + result.getDeleted() + " of " + tempFiles.size() + " temporary files, failed to delete " + failures);
             }
         }
 
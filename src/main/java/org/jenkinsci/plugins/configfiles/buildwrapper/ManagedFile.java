@@ -91,6 +91,11 @@ public class ManagedFile extends ConfigFile implements ExtensionPoint, Describab
         this.replaceTokens = replaceTokens != null ? replaceTokens : false;
     }
 
+    @DataBoundSetter
+    public void setSkipIfUnchanged(boolean skipIfUnchanged) {
+        this.skipIfUnchanged = skipIfUnchanged;
+    }
+
     @Override
     public String toString() {
         return "[ManagedFile: id=" + getFileId() + ", targetLocation=" + getTargetLocation() + ", variable=" + variable + "]";
@@ -120,7 +125,7 @@ public class ManagedFile extends ConfigFile implements ExtensionPoint, Describab
 
             ListBoxModel items = new ListBoxModel();
             items.add("please select", "");
-            for (Config config : ConfigFiles.getConfigsInContext(context, null)) {
+            for (Config config : ConfigFiles.getConfigMetadataInContext(context, null)) {
                 items.add(config.name, config.id);
             }
             return items;
@@ -24,13 +24,16 @@
 package org.jenkinsci.plugins.configfiles.buildwrapper;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.EnvVars;
+import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.lib.configprovider.model.ConfigFileManager;
+import org.jenkinsci.plugins.configfiles.common.RunResolutionCache;
 
 import hudson.AbortException;
 import hudson.FilePath;
@@ -78,12 +81,29 @@ public class ManagedFileUtil {
         final Map<ManagedFile, FilePath> file2Path = new HashMap<ManagedFile, FilePath>();
         listener.getLogger().println("provisioning config files...");
 
-        for (ManagedFile managedFile : managedFiles) {
-            FilePath target = ConfigFileManager.provisionConfigFile(managedFile, env, build, workspace, listener, tempFiles);
-            file2Path.put(managedFile, target);
+        final Map<String, Config> configs = resolveConfigs(managedFiles, build);
+        List<FilePath> targets = ConfigFileManager.provisionConfigFiles(managedFiles, configs, env, build, workspace, listener, tempFiles);
+        for (int i = 0; i < managedFiles.size(); i++) {
+            file2Path.put(managedFiles.get(i), targets.get(i));
         }
 
         return file2Path;
     }
 
+    /**
+     * Resolves the configs of all the given files with a single lookup in the context of the build, at most once per
+     * running build.
+     *
+     * @param managedFiles the files to resolve the configs for
+     * @param build        the build
+     * @return the resolved configs mapped by their id, ids which could not be resolved are not contained
+     */
+    static Map<String, Config> resolveConfigs(List<ManagedFile> managedFiles, Run<?, ?> build) {
+        List<String> ids = new ArrayList<String>();
+        for (ManagedFile managedFile : managedFiles) {
+            ids.add(managedFile.getFileId());
+        }
+        return RunResolutionCache.getConfigs(build, ids);
+    }
+
 }
@@ -0,0 +1,285 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsParameterValue;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.model.Item;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.queue.Tasks;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import jenkins.security.ImpersonatingExecutorService;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.Authentication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the credentials of many mappings of a build the same way as
+ * {@link CredentialsProvider#findCredentialById(String, Class, Run, List)}, but lists the candidate credentials of the
+ * build once instead of once per mapping. The domain requirements of a mapping are tested against the domain the
+ * credentials are stored in, which is only looked up for the credentials found. The usage of the credentials is
+ * tracked the same way as well.
+ * <p>
+ * Whatever is not resolved the same way from the listed candidates is looked up one by one: credentials parameters,
+ * builds which do not run as {@link ACL#SYSTEM2} (see {@link Tasks#getAuthenticationOf2(Queue.Task)}), and credentials which are not stored in a domain the requirements
+ * can be tested against.
+ * <p>
+ * The credentials of several mappings are looked up concurrently when
+ * <code>-Dorg.jenkinsci.plugins.configfiles.common.BatchCredentialsResolver.parallelism</code> is greater than
+ * <code>1</code>.
+ */
+@Restricted(NoExternalUse.class)
+public final class BatchCredentialsResolver<C extends IdCredentials> {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchCredentialsResolver.class.getName());
+
+    /**
+     * Number of credentials looked up at the same time (across all builds) by {@link #findAll(List)},
+     * <code>1</code> (the default) looks them up one after the other in the calling thread.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Can be changed by tests and from the script console.")
+    public static int PARALLELISM = Integer.getInteger(BatchCredentialsResolver.class.getName() + ".parallelism", 1);
+
+    private final Class<C> type;
+
+    private final Run<?, ?> build;
+
+    private boolean listed;
+
+    /**
+     * The first candidate for each id, <code>null</code> if they are not listed.
+     */
+    private Map<String, C> candidates;
+
+    /**
+     * The domains of the candidates looked up so far, empty if not stored in a domain.
+     */
+    private final Map<Credentials, Optional<Domain>> domains = new IdentityHashMap<>();
+
+    /**
+     * @param type  the type of the credentials
+     * @param build the build to resolve the credentials for
+     */
+    public BatchCredentialsResolver(@NonNull Class<C> type, @NonNull Run<?, ?> build) {
+        this.type = type;
+        this.build = build;
+    }
+
+    /**
+     * Resolves credentials, once per running build (see {@link RunResolutionCache}).
+     *
+     * @param credentialsId      the id of the credentials
+     * @param domainRequirements the domain requirements
+     * @param requirementKey     identifies the domain requirements among the ones used with the same type
+     * @return the credentials, <code>null</code> if not found
+     */
+    @CheckForNull
+    public C find(@NonNull String credentialsId, @NonNull List<DomainRequirement> domainRequirements, @CheckForNull String requirementKey) {
+        return RunResolutionCache.findCredentialById(credentialsId, type, build, domainRequirements, requirementKey, this::lookup);
+    }
+
+    /**
+     * Resolves the credentials of several mappings, concurrently (see {@link #PARALLELISM}) with the authentication of
+     * the calling thread.
+     *
+     * @param requests the credentials to resolve
+     * @return the credentials of each request in the order of the requests, <code>null</code> for the ones not found
+     */
+    @NonNull
+    public List<C> findAll(@NonNull List<Request> requests) {
+        List<C> found = new ArrayList<>(requests.size());
+        int parallelism = PARALLELISM;
+        if (parallelism <= 1 || requests.size() <= 1) {
+            for (Request request : requests) {
+                found.add(find(request.credentialsId, request.domainRequirements, request.requirementKey));
+            }
+            return found;
+        }
+
+        ExecutorService executor = new ImpersonatingExecutorService(
+                BoundedExecutors.get("BatchCredentialsResolver.find", parallelism), Jenkins.getAuthentication2());
+        List<Future<C>> futures = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            futures.add(executor.submit(() -> find(request.credentialsId, request.domainRequirements, request.requirementKey)));
+        }
+        boolean interrupted = false;
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                Request request = requests.get(i);
+                if (!interrupted) {
+                    try {
+                        found.add(futures.get(i).get());
+                        continue;
+                    } catch (InterruptedException e) {
+                        // the interrupt is left to the caller, the remaining credentials are looked up in this thread
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                }
+                found.add(find(request.credentialsId, request.domainRequirements, request.requirementKey));
+            }
+        } finally {
+            for (Future<C> future : futures) {
+                future.cancel(true);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return found;
+    }
+
+    @CheckForNull
+    private C lookup(@NonNull String credentialsId, @NonNull List<DomainRequirement> domainRequirements) {
+        if (credentialsId.startsWith("${") || hasCredentialsParameters()) {
+            return CredentialsProvider.findCredentialById(credentialsId, type, build, domainRequirements);
+        }
+        Map<String, C> candidates = getCandidates();
+        if (candidates == null) {
+            return CredentialsProvider.findCredentialById(credentialsId, type, build, domainRequirements);
+        }
+        C credentials = candidates.get(credentialsId);
+        if (credentials == null) {
+            // the candidates for the requirements are a subset of the listed ones
+            return null;
+        }
+        if (!domainRequirements.isEmpty()) {
+            Domain domain = getDomain(credentials);
+            if (domain == null || !domain.test(domainRequirements)) {
+                return CredentialsProvider.findCredentialById(credentialsId, type, build, domainRequirements);
+            }
+        }
+        // the same as findCredentialById, the credentials are used by the build while its log is written
+        if (build.isLogUpdated()) {
+            CredentialsProvider.track(build, credentials);
+        }
+        Credentials contextualized = credentials.forRun(build);
+        if (type.isInstance(contextualized)) {
+            return type.cast(contextualized);
+        }
+        LOGGER.log(Level.WARNING, "{0}.forRun({1}) returned {2} which is not a {3}",
+                new Object[]{credentials, build, contextualized, type.getName()});
+        return credentials;
+    }
+
+    private boolean hasCredentialsParameters() {
+        ParametersAction parameters = build.getAction(ParametersAction.class);
+        if (parameters != null) {
+            for (ParameterValue parameter : parameters.getParameters()) {
+                if (parameter instanceof CredentialsParameterValue) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the first candidate for each id, <code>null</code> if the build does not run as {@link ACL#SYSTEM2}
+     */
+    @CheckForNull
+    private synchronized Map<String, C> getCandidates() {
+        if (!listed) {
+            listed = true;
+            Item item = build.getParent();
+            // as the build runs, a QueueItemAuthenticator may restrict it to the credentials of a user
+            Authentication authentication = item instanceof Queue.Task
+                    ? Tasks.getAuthenticationOf2((Queue.Task) item)
+                    : ACL.SYSTEM2;
+            if (ACL.SYSTEM2.equals(authentication)) {
+                Map<String, C> candidates = new HashMap<>();
+                for (C credentials : CredentialsProvider.lookupCredentialsInItem(type, item, ACL.SYSTEM2, Collections.emptyList())) {
+                    candidates.putIfAbsent(credentials.getId(), credentials);
+                }
+                this.candidates = candidates;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the domain the given candidate is stored in, <code>null</code> if not found
+     */
+    @CheckForNull
+    private Domain getDomain(@NonNull Credentials credentials) {
+        Optional<Domain> domain;
+        synchronized (domains) {
+            domain = domains.get(credentials);
+        }
+        if (domain == null) {
+            // looked up outside of the lock, the same as RunResolutionCache does
+            domain = Optional.ofNullable(findDomain(credentials));
+            synchronized (domains) {
+                domains.putIfAbsent(credentials, domain);
+            }
+        }
+        return domain.orElse(null);
+    }
+
+    @CheckForNull
+    private Domain findDomain(@NonNull Credentials credentials) {
+        for (CredentialsStore store : CredentialsProvider.lookupStores(build.getParent())) {
+            for (Domain domain : store.getDomains()) {
+                for (Credentials stored : store.getCredentials(domain)) {
+                    if (stored == credentials) {
+                        return domain;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The credentials of a mapping.
+     */
+    public static final class Request {
+
+        private final String credentialsId;
+
+        private final List<DomainRequirement> domainRequirements;
+
+        private final String requirementKey;
+
+        /**
+         * @param credentialsId      the id of the credentials
+         * @param domainRequirements the domain requirements
+         * @param requirementKey     identifies the domain requirements among the ones used with the same type
+         */
+        public Request(@NonNull String credentialsId, @NonNull List<DomainRequirement> domainRequirements, @CheckForNull String requirementKey) {
+            this.credentialsId = credentialsId;
+            this.domainRequirements = domainRequirements;
+            this.requirementKey = requirementKey;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executors shared by all builds, each bounded to a number of running tasks. Uses virtual threads when the runtime
+ * provides them, a pool of daemon threads otherwise.
+ */
+@Restricted(NoExternalUse.class)
+public final class BoundedExecutors {
+
+    private static final Logger LOGGER = Logger.getLogger(BoundedExecutors.class.getName());
+
+    private static final Map<String, ExecutorService> EXECUTORS = new HashMap<>();
+
+    private static final Map<String, Integer> PARALLELISMS = new HashMap<>();
+
+    private BoundedExecutors() {
+    }
+
+    /**
+     * @param name        the name of the executor, used for its threads
+     * @param parallelism the number of tasks running at the same time
+     * @return the executor with the given name, resized if the parallelism has changed
+     */
+    public static synchronized ExecutorService get(String name, int parallelism) {
+        ExecutorService executor = EXECUTORS.get(name);
+        if (executor == null) {
+            executor = create(name, parallelism);
+            EXECUTORS.put(name, executor);
+            PARALLELISMS.put(name, parallelism);
+        } else if (PARALLELISMS.get(name).intValue() != parallelism) {
+            resize(executor, PARALLELISMS.get(name), parallelism);
+            PARALLELISMS.put(name, parallelism);
+        }
+        return executor;
+    }
+
+    /**
+     * Changes the number of tasks running at the same time, tasks which are already running are not affected.
+     */
+    private static void resize(ExecutorService executor, int previous, int parallelism) {
+        if (executor instanceof Bounded) {
+            ((Bounded) executor).resize(previous, parallelism);
+        } else {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            // the core pool size must never exceed the maximum pool size
+            if (parallelism > previous) {
+                pool.setMaximumPoolSize(parallelism);
+                pool.setCorePoolSize(parallelism);
+            } else {
+                pool.setCorePoolSize(parallelism);
+                pool.setMaximumPoolSize(parallelism);
+            }
+        }
+    }
+
+    private static ExecutorService create(String name, int parallelism) {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new Bounded(virtual, parallelism);
+        } catch (NoSuchMethodException e) {
+            // Java 17
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.log(Level.FINE, "virtual threads not available", e);
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Lets at most a given number of tasks run at the same time on an unbounded executor.
+     */
+    private static final class Bounded extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        private final Permits permits;
+
+        Bounded(ExecutorService delegate, int permits) {
+            this.delegate = delegate;
+            this.permits = new Permits(permits);
+        }
+
+        void resize(int previous, int parallelism) {
+            if (parallelism > previous) {
+                permits.release(parallelism - previous);
+            } else {
+                // may become negative while more tasks than the new parallelism are running
+                permits.reducePermits(previous - parallelism);
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Exposes {@link Semaphore#reducePermits(int)} to lower the parallelism.
+     */
+    private static final class Permits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Permits(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
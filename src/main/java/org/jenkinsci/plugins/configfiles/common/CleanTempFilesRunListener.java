@@ -24,19 +24,29 @@
 package org.jenkinsci.plugins.configfiles.common;
 
 import hudson.Extension;
-import hudson.FilePath;
 import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 import hudson.model.Node;
 import hudson.model.listeners.RunListener;
 import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Removes the temporarily created files at 'onComplete()' of each build, doing it at this state, ensures the files are available also for publishers.
+ * All the files of a build are deleted with a single call to the node it was built on. With
+ * <code>-Dorg.jenkinsci.plugins.configfiles.common.CleanTempFilesRunListener.async=true</code> they are deleted in
+ * the background (by at most <code>org.jenkinsci.plugins.configfiles.common.CleanTempFilesRunListener.threads</code>
+ * threads, 2 by default), failures are then only logged to the system log.
  * 
  * @author Dominik Bartholdi (imod)
  */
@@ -45,35 +55,74 @@ public class CleanTempFilesRunListener extends RunListener<AbstractBuild<?, ?>>
     
     private final static Logger LOGGER = Logger.getLogger(CleanTempFilesRunListener.class.getName());
 
+    private static final boolean ASYNC = Boolean.getBoolean(CleanTempFilesRunListener.class.getName() + ".async");
+
+    private static final int THREADS = Integer.getInteger(CleanTempFilesRunListener.class.getName() + ".threads", 2);
+
+    private static ExecutorService executor;
+
     @Override
     public void onCompleted(AbstractBuild<?, ?> build, TaskListener listener) {
 
         final List<CleanTempFilesAction> actions = build.getActions(CleanTempFilesAction.class);
-        
+        if (actions.isEmpty()) {
+            return;
+        }
+
+        final List<String> remotePaths = new ArrayList<String>();
         for (CleanTempFilesAction action : actions) {
             try {
-                for (String remotePath : action.getTempFiles()) {
-                    LOGGER.log(Level.FINE, "Delete {0}", new Object[]{remotePath});
-                    try {
-                        final Node builtOn = build.getBuiltOn();
-                        if (builtOn != null) {
-                            final VirtualChannel channel = builtOn.getChannel();
-                            if (channel != null) {
-                                FilePath fp = new FilePath(channel, remotePath);
-                                if (fp.exists()) {
-                                    fp.delete();
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        listener.getLogger().println("[WARN] failed to delete temp file: " + remotePath + " - " + e.getMessage());
-                    }
-                }
+                remotePaths.addAll(action.getTempFiles());
             } finally {
                 // remove the action, there is nothing we want to persist on the build
                 build.removeAction(action);
             }
         }
+        if (remotePaths.isEmpty()) {
+            return;
+        }
+
+        final Node builtOn = build.getBuiltOn();
+        final VirtualChannel channel = builtOn != null ? builtOn.getChannel() : null;
+        if (channel == null) {
+            return;
+        }
+
+        if (ASYNC) {
+            final String name = build.getFullDisplayName();
+            getExecutor().execute(() -> {
+                String failures = delete(channel, remotePaths);
+                if (failures != null) {
+                    LOGGER.log(Level.WARNING, "failed to delete temp files of {0}: {1}", new Object[]{name, failures});
+                }
+            });
+        } else {
+            String failures = delete(channel, remotePaths);
+            if (failures != null) {
+                listener.getLogger().println("[WARN] failed to delete temp files: " + failures);
+            }
+        }
+    }
 
+    /**
+     * @return the failures in a single line, <code>null</code> if all the files have been deleted
+     */
+    private static String delete(VirtualChannel channel, List<String> remotePaths) {
+        LOGGER.log(Level.FINE, "Delete {0}", new Object[]{remotePaths});
+        try {
+            return DeleteFiles.delete(channel, remotePaths).describeFailures();
+        } catch (Exception e) {
+            return remotePaths + " - " + e.getMessage();
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "CleanTempFilesRunListener"));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
     }
 }
@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deletes files on a node with a single call, files which do not exist (any more) are ignored.
+ */
+@Restricted(NoExternalUse.class)
+public final class DeleteFiles extends MasterToSlaveCallable<DeleteFiles.Result, IOException> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String base;
+
+    private final List<String> paths;
+
+    private DeleteFiles(@CheckForNull String base, @NonNull List<String> paths) {
+        this.base = base;
+        this.paths = new ArrayList<>(paths);
+    }
+
+    /**
+     * Deletes the files.
+     *
+     * @param channel the channel of the node the files are on
+     * @param paths   the absolute remote paths of the files to delete
+     * @return what has been deleted
+     */
+    @NonNull
+    public static Result delete(@NonNull VirtualChannel channel, @NonNull List<String> paths) throws IOException, InterruptedException {
+        if (paths.isEmpty()) {
+            return new Result(0, Collections.emptyMap());
+        }
+        return channel.call(new DeleteFiles(null, paths));
+    }
+
+    /**
+     * Deletes the files.
+     *
+     * @param base  the directory relative paths are resolved against, as with {@link FilePath#FilePath(FilePath, String)}
+     * @param paths the remote paths of the files to delete
+     * @return what has been deleted
+     */
+    @NonNull
+    public static Result delete(@NonNull FilePath base, @NonNull List<String> paths) throws IOException, InterruptedException {
+        if (paths.isEmpty()) {
+            return new Result(0, Collections.emptyMap());
+        }
+        return base.getChannel().call(new DeleteFiles(base.getRemote(), paths));
+    }
+
+    @Override
+    public Result call() {
+        FilePath dir = base != null ? new FilePath(new File(base)) : null;
+        int deleted = 0;
+        Map<String, String> failures = new LinkedHashMap<>();
+        for (String path : paths) {
+            try {
+                FilePath file = dir != null ? new FilePath(dir, path) : new FilePath(new File(path));
+                if (file.exists()) {
+                    file.delete();
+                    deleted++;
+                }
+            } catch (IOException | RuntimeException e) {
+                failures.put(path, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.put(path, "interrupted");
+            }
+        }
+        return new Result(deleted, failures);
+    }
+
+    /**
+     * What has been deleted.
+     */
+    public static final class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int deleted;
+
+        private final Map<String, String> failures;
+
+        Result(int deleted, Map<String, String> failures) {
+            this.deleted = deleted;
+            this.failures = failures;
+        }
+
+        /**
+         * @return the number of files deleted, files which did not exist are not counted
+         */
+        public int getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return the files which could not be deleted, mapped to the reason
+         */
+        @NonNull
+        public Map<String, String> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return the failures in a single line, <code>null</code> if there are none
+         */
+        @CheckForNull
+        public String describeFailures() {
+            if (failures.isEmpty()) {
+                return null;
+            }
+            StringBuilder message = new StringBuilder();
+            for (Map.Entry<String, String> failure : failures.entrySet()) {
+                if (message.length() > 0) {
+                    message.append(", ");
+                }
+                message.append(failure.getKey()).append(" - ").append(failure.getValue());
+            }
+            return message.toString();
+        }
+    }
+}
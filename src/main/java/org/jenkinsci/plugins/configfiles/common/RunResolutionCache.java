@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.ConfigFiles;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+/**
+ * Configs and credentials resolved for a running build. The log of a build is masked with the credentials of its
+ * configs before the configs are provided, both resolve them from here so that they are looked up once per build.
+ * Dropped when the build is finalized, builds which are not running resolve them every time.
+ */
+@Restricted(NoExternalUse.class)
+public final class RunResolutionCache {
+
+    private static final ConcurrentMap<Run<?, ?>, RunResolutionCache> CACHES = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Optional<Config>> configs = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Optional<Credentials>> credentials = new ConcurrentHashMap<>();
+
+    private RunResolutionCache() {
+    }
+
+    @CheckForNull
+    private static RunResolutionCache of(Run<?, ?> build) {
+        if (build == null || !build.isBuilding()) {
+            return null;
+        }
+        return CACHES.computeIfAbsent(build, b -> new RunResolutionCache());
+    }
+
+    /**
+     * Resolves configs the same way as {@link ConfigFiles#getByIds(Run, Collection)}, each of them once per build.
+     *
+     * @param build the build to resolve the configs for
+     * @param ids   the ids of the configs
+     * @return the configs by id, ids which could not be resolved are not contained
+     */
+    @NonNull
+    public static Map<String, Config> getConfigs(@NonNull Run<?, ?> build, @NonNull Collection<String> ids) {
+        RunResolutionCache cache = of(build);
+        if (cache == null) {
+            return ConfigFiles.getByIds(build, ids);
+        }
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            if (!cache.configs.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Config> resolved = ConfigFiles.getByIds(build, missing);
+            for (String id : missing) {
+                cache.configs.putIfAbsent(id, Optional.ofNullable(resolved.get(id)));
+            }
+        }
+        Map<String, Config> configs = new HashMap<>();
+        for (String id : ids) {
+            cache.configs.get(id).ifPresent(config -> configs.put(id, config));
+        }
+        return configs;
+    }
+
+    /**
+     * Looks up credentials the same way as
+     * {@link CredentialsProvider#findCredentialById(String, Class, Run, List)}, each of them once per build.
+     *
+     * @param credentialsId      the id of the credentials
+     * @param type               the type of the credentials
+     * @param build              the build to look up the credentials for
+     * @param domainRequirements the domain requirements
+     * @param requirementKey     identifies the domain requirements among the ones used with the same type, e.g. the
+     *                           Maven server id they are made from
+     * @return the credentials, <code>null</code> if not found
+     */
+    @CheckForNull
+    public static <C extends IdCredentials> C findCredentialById(@NonNull String credentialsId, @NonNull Class<C> type, @NonNull Run<?, ?> build,
+                                                                 @NonNull List<DomainRequirement> domainRequirements, @CheckForNull String requirementKey) {
+        return findCredentialById(credentialsId, type, build, domainRequirements, requirementKey,
+                (id, requirements) -> CredentialsProvider.findCredentialById(id, type, build, requirements));
+    }
+
+    /**
+     * Same as {@link #findCredentialById(String, Class, Run, List, String)}, looking up the credentials which are not
+     * cached with the given function.
+     */
+    @CheckForNull
+    static <C extends IdCredentials> C findCredentialById(@NonNull String credentialsId, @NonNull Class<C> type, @NonNull Run<?, ?> build,
+                                                          @NonNull List<DomainRequirement> domainRequirements, @CheckForNull String requirementKey,
+                                                          @NonNull BiFunction<String, List<DomainRequirement>, C> lookup) {
+        RunResolutionCache cache = of(build);
+        if (cache == null) {
+            return lookup.apply(credentialsId, domainRequirements);
+        }
+        StringBuilder key = new StringBuilder(type.getName());
+        for (DomainRequirement requirement : domainRequirements) {
+            key.append(':').append(requirement.getClass().getName());
+        }
+        key.append(':').append(requirementKey).append(':').append(credentialsId);
+        Optional<Credentials> found = cache.credentials.get(key.toString());
+        if (found == null) {
+            // not looked up within computeIfAbsent, the lookup may call remote stores while holding a lock of the map
+            found = Optional.ofNullable(lookup.apply(credentialsId, domainRequirements));
+            Optional<Credentials> raced = cache.credentials.putIfAbsent(key.toString(), found);
+            if (raced != null) {
+                found = raced;
+            }
+        }
+        return found.map(type::cast).orElse(null);
+    }
+
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onFinalized(Run<?, ?> run) {
+            CACHES.remove(run);
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            CACHES.remove(run);
+        }
+    }
+}
@@ -24,10 +24,10 @@
 package org.jenkinsci.plugins.configfiles.custom.security;
 
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.IdCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import org.jenkinsci.plugins.configfiles.common.BatchCredentialsResolver;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.FilePath;
 import hudson.model.Run;
@@ -58,6 +58,7 @@ public class CustomConfigCredentialsHelper {
     public static Map<String, IdCredentials> resolveCredentials(Run<?, ?> build, final List<CustomizedCredentialMapping> customizedCredentialMappings, TaskListener listener) {
 
         Map<String, IdCredentials> customizedCredentialsMap = new HashMap<>();
+        List<BatchCredentialsResolver.Request> requests = new ArrayList<>(customizedCredentialMappings.size());
         for (CustomizedCredentialMapping customizedCredentialMapping : customizedCredentialMappings) {
             final String credentialsId = customizedCredentialMapping.getCredentialsId();
             final String tokenKey = customizedCredentialMapping.getTokenKey();
@@ -66,13 +67,19 @@ public class CustomConfigCredentialsHelper {
             if (tokenKey != null && !tokenKey.isBlank()) {
                 domainRequirements = Collections.singletonList(new TokenKeyRequirement(tokenKey));
             }
+            requests.add(new BatchCredentialsResolver.Request(credentialsId, domainRequirements, tokenKey));
+        }
 
-            final IdCredentials c = CredentialsProvider.findCredentialById(credentialsId, IdCredentials.class, build, domainRequirements);
+        // may be resolved concurrently, reported in the order of the mappings
+        List<IdCredentials> credentials = new BatchCredentialsResolver<>(IdCredentials.class, build).findAll(requests);
+        for (int i = 0; i < customizedCredentialMappings.size(); i++) {
+            final CustomizedCredentialMapping customizedCredentialMapping = customizedCredentialMappings.get(i);
+            final IdCredentials c = credentials.get(i);
 
             if (c != null) {
-                customizedCredentialsMap.put(tokenKey, c);
+                customizedCredentialsMap.put(customizedCredentialMapping.getTokenKey(), c);
             } else {
-                listener.getLogger().println("Could not find credentials [" + credentialsId + "] for " + build);
+                listener.getLogger().println("Could not find credentials [" + customizedCredentialMapping.getCredentialsId() + "] for " + build);
             }
         }
         return customizedCredentialsMap;
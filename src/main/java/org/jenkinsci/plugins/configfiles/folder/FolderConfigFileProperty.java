@@ -3,102 +3,125 @@ package org.jenkinsci.plugins.configfiles.folder;
 import com.cloudbees.hudson.plugins.folder.AbstractFolder;
 import com.cloudbees.hudson.plugins.folder.AbstractFolderProperty;
 import com.cloudbees.hudson.plugins.folder.AbstractFolderPropertyDescriptor;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.CompactWriter;
+import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
 import hudson.model.*;
+import hudson.util.XStream2;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
 import org.jenkinsci.lib.configprovider.model.Config;
-import org.jenkinsci.plugins.configfiles.ConfigByIdComparator;
 import org.jenkinsci.plugins.configfiles.ConfigByNameComparator;
 import org.jenkinsci.plugins.configfiles.ConfigFileStore;
+import org.jenkinsci.plugins.configfiles.ConfigLookupCache;
 import org.jenkinsci.plugins.configfiles.ConfigProviderComparator;
+import org.jenkinsci.plugins.configfiles.ConfigSnapshot;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest2;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Config files of a folder, stored in the folder's <code>config.xml</code>: every modification saves the folder, so
+ * it is seen by {@link hudson.model.listeners.SaveableListener}s and a round trip of the folder configuration keeps them.
+ * <p>
+ * When the folder is loaded, the configs are only kept as they are written in its <code>config.xml</code> (see
+ * {@link ConverterImpl}), they are unmarshalled on first access.
+ */
 public class FolderConfigFileProperty extends AbstractFolderProperty<AbstractFolder<?>> implements ConfigFileStore {
 
-    private static Comparator<Config> COMPARATOR = new ConfigByIdComparator();
+    private static final Logger LOGGER = Logger.getLogger(FolderConfigFileProperty.class.getName());
 
     private static ConfigProviderComparator CONFIGPROVIDER_COMPARATOR = new ConfigProviderComparator();
 
     private Collection<Config> configs;
 
+    /**
+     * The current content of the store, {@link #configs} always refers to its (never modified) set; <code>null</code>
+     * until {@link #stored} is unmarshalled.
+     */
+    private transient volatile ConfigSnapshot snapshot;
+
+    /**
+     * The <code>configs</code> element as read from the folder's <code>config.xml</code>, <code>null</code> once
+     * unmarshalled.
+     */
+    private transient String stored;
+
     /*package*/ FolderConfigFileProperty() {
         this(null);
     }
 
     @DataBoundConstructor
     public FolderConfigFileProperty(Collection<Config> configs) {
-        if(configs != null) {
-            this.configs = configs
-                .stream()
-                .collect(Collectors.toCollection(() -> new TreeSet<>(COMPARATOR)));
-        } else {
-            this.configs = new TreeSet<>(COMPARATOR);
-        }
+        publish(ConfigSnapshot.of(configs));
     }
 
     @Override
     public Collection<Config> getConfigs() {
-        return configs;
+        return getSnapshot().copyConfigs();
     }
 
     @Override
     public Collection<Config> getConfigs(Class<? extends Descriptor> descriptor) {
-        List<Config> cs = new ArrayList<Config>();
-        for (Config c : configs) {
-            if (c.getDescriptor().getClass().equals(descriptor)) {
-                cs.add(c);
-            }
-        }
-        return cs;
+        return getSnapshot().getConfigs(descriptor);
     }
 
     @Override
     public Config getById(String id) {
-        if (id != null) {
-            for (Config c : configs) {
-                if (id.equals(c.id)) {
-                    return c;
-                }
-            }
-        }
-        return null;
+        return getSnapshot().getById(id);
     }
 
     @Override
     public void save(Config config) {
-        configs.remove(config);
-        configs.add(config);
+        synchronized (this) {
+            Config previous = getSnapshot().getById(config.id);
+            publish(getSnapshot().with(config));
+            ConfigLookupCache.onSaved(this, previous, config);
+        }
+        // not holding the lock of this store, saving the folder serializes it
         try {
             getOwner().save();
         } catch (IOException e) {
-            throw new RuntimeException("failed to save config to store", e);
+            throw new UncheckedIOException("failed to save config to store", e);
         }
     }
 
     @Override
     public void remove(String id) {
-        Config c = getById(id);
-        if (c != null) {
-            configs.remove(c);
-            try {
-                getOwner().save();
-            } catch (IOException e) {
-                throw new RuntimeException("failed to remove config from store", e);
+        Config c;
+        synchronized (this) {
+            c = getSnapshot().getById(id);
+            if (c == null) {
+                return;
             }
+            publish(getSnapshot().without(c));
+            ConfigLookupCache.onRemoved(this, c);
+        }
+        // not holding the lock of this store, saving the folder serializes it
+        try {
+            getOwner().save();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to remove config from store", e);
         }
     }
 
     @Override
     public Map<ConfigProvider, Collection<Config>> getGroupedConfigs() {
         Map<ConfigProvider, Collection<Config>> grouped = new TreeMap<ConfigProvider, Collection<Config>>(CONFIGPROVIDER_COMPARATOR);
-        for (Config c : configs) {
+        for (Config c : getSnapshot().getConfigs()) {
             Collection<Config> configs = grouped.get(c.getProvider());
             if (configs == null) {
                 configs = new ArrayList<>();
@@ -114,15 +137,90 @@ public class FolderConfigFileProperty extends AbstractFolderProperty<AbstractFol
         return grouped;
     }
 
-    private Object readResolve() {
-        if (!(configs instanceof TreeSet)) {
-            Collection<Config> newConfigs = new TreeSet<>(COMPARATOR);
-            newConfigs.addAll(configs);
-            configs = newConfigs;
+    private ConfigSnapshot getSnapshot() {
+        ConfigSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                publish(ConfigSnapshot.of(unmarshalConfigs(stored)));
+                stored = null;
+            }
+            return snapshot;
+        }
+    }
+
+    @CheckForNull
+    private Collection<Config> unmarshalConfigs(@CheckForNull String xml) {
+        if (xml == null) {
+            return null;
+        }
+        String root = Items.XSTREAM2.getMapper().serializedClass(StoredConfigs.class);
+        try {
+            StoredConfigs read = (StoredConfigs) Items.XSTREAM2.fromXML("<?xml version=\"1.1\" encoding=\"UTF-8\"?><" + root + ">" + xml + "</" + root + ">");
+            return read.configs;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read the config files of " + (owner != null ? owner.getFullName() : "a folder"), e);
+            return null;
         }
+    }
+
+    private Object readResolve() {
+        publish(ConfigSnapshot.of(configs));
         return this;
     }
 
+    private void publish(ConfigSnapshot next) {
+        configs = next.getPersistentConfigs();
+        snapshot = next;
+    }
+
+    /**
+     * Reads the configs the same way as the {@link #configs} field is read.
+     */
+    private static final class StoredConfigs {
+        private Collection<Config> configs;
+    }
+
+    /**
+     * Keeps the <code>configs</code> element of a folder's <code>config.xml</code> as it is when the folder is loaded,
+     * so that the configs of folders which are never used are not unmarshalled. The configs are unmarshalled before the
+     * property is written, which it is the same way as before.
+     */
+    public static final class ConverterImpl extends XStream2.PassthruConverter<FolderConfigFileProperty> {
+
+        public ConverterImpl(XStream2 xstream) {
+            super(xstream);
+        }
+
+        @Override
+        public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+            ((FolderConfigFileProperty) source).getSnapshot();
+            super.marshal(source, writer, context);
+        }
+
+        @Override
+        public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+            FolderConfigFileProperty property = new FolderConfigFileProperty();
+            property.snapshot = null;
+            while (reader.hasMoreChildren()) {
+                reader.moveDown();
+                if ("configs".equals(reader.getNodeName())) {
+                    StringWriter xml = new StringWriter();
+                    new HierarchicalStreamCopier().copy(reader, new CompactWriter(xml, PrettyPrintWriter.XML_1_1));
+                    property.stored = xml.toString();
+                }
+                reader.moveUp();
+            }
+            return property;
+        }
+
+        @Override
+        protected void callback(FolderConfigFileProperty property, UnmarshallingContext context) {
+        }
+    }
+
     public FolderConfigFileProperty reconfigure(StaplerRequest2 req, JSONObject form) throws Descriptor.FormException {
         return this;
     }
@@ -110,7 +110,7 @@ public class MvnGlobalSettingsProvider extends GlobalSettingsProvider {
 
                         if (resolvedCredentials != null && !resolvedCredentials.isEmpty()) {
                             List<String> tempFiles = new ArrayList<String>();
-                            fileContent = CredentialsHelper.fillAuthentication(fileContent, isReplaceAll, resolvedCredentials, workDir, tempFiles);
+                            fileContent = CredentialsHelper.fillAuthentication(config.id, fileContent, isReplaceAll, resolvedCredentials, workDir, tempFiles);
                             for (String tempFile : tempFiles) {
                                 build.addAction(new CleanTempFilesAction(tempFile));
                             }
@@ -172,7 +172,7 @@ public class MvnGlobalSettingsProvider extends GlobalSettingsProvider {
                 return items;
             }
             
-            for (Config config : ConfigFiles.getConfigsInContext(context, GlobalMavenSettingsConfigProvider.class)) {
+            for (Config config : ConfigFiles.getConfigMetadataInContext(context, GlobalMavenSettingsConfigProvider.class)) {
                 items.add(new ListBoxModel.Option(config.name, config.id, config.id.equals(settingsConfigId)));
             }
             return items;
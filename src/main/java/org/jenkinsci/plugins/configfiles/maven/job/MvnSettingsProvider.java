@@ -109,7 +109,7 @@ public class MvnSettingsProvider extends SettingsProvider {
 
                         if (!resolvedCredentials.isEmpty()) {
                             List<String> tempFiles = new ArrayList<String>();
-                            fileContent = CredentialsHelper.fillAuthentication(fileContent, isReplaceAll, resolvedCredentials, workDir, tempFiles);
+                            fileContent = CredentialsHelper.fillAuthentication(config.id, fileContent, isReplaceAll, resolvedCredentials, workDir, tempFiles);
                             for (String tempFile : tempFiles) {
                                 build.addAction(new CleanTempFilesAction(tempFile));
                             }
@@ -171,7 +171,7 @@ public class MvnSettingsProvider extends SettingsProvider {
                 return items;
             }
             
-            for (Config config : ConfigFiles.getConfigsInContext(context, MavenSettingsConfigProvider.class)) {
+            for (Config config : ConfigFiles.getConfigMetadataInContext(context, MavenSettingsConfigProvider.class)) {
                 items.add(new ListBoxModel.Option(config.name, config.id, config.id.equals(settingsConfigId)));
             }
             return items;
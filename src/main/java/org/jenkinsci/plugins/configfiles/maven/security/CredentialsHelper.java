@@ -11,10 +11,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -33,20 +30,27 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.FilePath;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.Secret;
+import org.jenkinsci.plugins.configfiles.common.BatchCredentialsResolver;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 public class CredentialsHelper {
 
-    private static final Logger LOGGER = Logger.getLogger(CredentialsHelper.class.getName());
-    private static final Collection<String> ATTRIBUTES_TO_KEEP = Arrays.asList("filePermissions", "directoryPermissions", "configuration");
+    static final Collection<String> ATTRIBUTES_TO_KEEP = Arrays.asList("filePermissions", "directoryPermissions", "configuration");
+
+    /**
+     * Rewrites all settings with the DOM, reformatting them, instead of with a {@link SettingsServersRewriter}.
+     */
+    private static final boolean DOM_REWRITE = Boolean.getBoolean(CredentialsHelper.class.getName() + ".domRewrite");
 
     /**
      * hide constructor
@@ -67,21 +71,28 @@ public class CredentialsHelper {
      */
     public static Map<String, StandardUsernameCredentials> resolveCredentials(Run<?,?> build, final List<ServerCredentialMapping> serverCredentialMappings, TaskListener listener) {
         Map<String, StandardUsernameCredentials> serverId2credential = new HashMap<String, StandardUsernameCredentials>();
+        List<BatchCredentialsResolver.Request> requests = new ArrayList<>(serverCredentialMappings.size());
         for (ServerCredentialMapping serverCredentialMapping : serverCredentialMappings) {
             final String credentialsId = serverCredentialMapping.getCredentialsId();
             final String serverId = serverCredentialMapping.getServerId();
-            
+
             List<DomainRequirement> domainRequirements = Collections.emptyList();
             if (serverId != null && !serverId.isBlank()) {
                 domainRequirements = Collections.singletonList(new MavenServerIdRequirement(serverId));
             }
+            requests.add(new BatchCredentialsResolver.Request(credentialsId, domainRequirements, serverId));
+        }
 
-            final StandardUsernameCredentials c = CredentialsProvider.findCredentialById(credentialsId, StandardUsernameCredentials.class, build, domainRequirements);
+        // may be resolved concurrently, reported in the order of the mappings
+        List<StandardUsernameCredentials> credentials = new BatchCredentialsResolver<>(StandardUsernameCredentials.class, build).findAll(requests);
+        for (int i = 0; i < serverCredentialMappings.size(); i++) {
+            final ServerCredentialMapping serverCredentialMapping = serverCredentialMappings.get(i);
+            final StandardUsernameCredentials c = credentials.get(i);
 
             if (c != null) {
-                serverId2credential.put(serverId, c);
+                serverId2credential.put(serverCredentialMapping.getServerId(), c);
             } else {
-                listener.getLogger().println("Could not find credentials [" + credentialsId + "] for " + build);
+                listener.getLogger().println("Could not find credentials [" + serverCredentialMapping.getCredentialsId() + "] for " + build);
             }
         }
         return serverId2credential;
@@ -110,13 +121,41 @@ public class CredentialsHelper {
     public static String fillAuthentication(String mavenSettingsContent, final Boolean isReplaceAllServerDefinitions,
                                             Map<String, StandardUsernameCredentials> mavenServerId2jenkinsCredential,
                                             FilePath workDir, List<String> tempFiles) throws Exception {
-        String content = mavenSettingsContent;
+        return fillAuthentication(null, mavenSettingsContent, isReplaceAllServerDefinitions, mavenServerId2jenkinsCredential, workDir, tempFiles);
+    }
 
+    /**
+     * Same as {@link #fillAuthentication(String, Boolean, Map, FilePath, List)}, with the analysis of the settings
+     * cached for the config they come from.
+     *
+     * @param configId
+     *            id of the config the settings come from, <code>null</code> if they are not the content of a config
+     */
+    @Restricted(NoExternalUse.class)
+    public static String fillAuthentication(@CheckForNull String configId, String mavenSettingsContent, final Boolean isReplaceAllServerDefinitions,
+                                            Map<String, StandardUsernameCredentials> mavenServerId2jenkinsCredential,
+                                            FilePath workDir, List<String> tempFiles) throws Exception {
         if (mavenServerId2jenkinsCredential.isEmpty()) {
             return mavenSettingsContent;
         }
 
-        Document doc = XMLUtils.parse(new StringReader(content));
+        final boolean replaceAll = Boolean.TRUE.equals(isReplaceAllServerDefinitions);
+        ServerDefinitions definitions = new ServerDefinitions(mavenServerId2jenkinsCredential, workDir, tempFiles);
+        if (!DOM_REWRITE) {
+            SettingsServersRewriter rewriter = configId == null
+                    ? SettingsServersRewriter.analyze(mavenSettingsContent)
+                    : SettingsTemplate.of(configId, mavenSettingsContent);
+            String content = rewriter.fill(replaceAll, mavenServerId2jenkinsCredential.keySet(), definitions);
+            if (content != null) {
+                return content;
+            }
+        }
+        return fillAuthenticationWithDom(mavenSettingsContent, replaceAll, mavenServerId2jenkinsCredential.keySet(), definitions);
+    }
+
+    static String fillAuthenticationWithDom(String mavenSettingsContent, boolean replaceAll, Set<String> mavenServerIds,
+                                            ServerDefinitions definitions) throws Exception {
+        Document doc = XMLUtils.parse(new StringReader(mavenSettingsContent));
 
         Map<String, Node> removedMavenServers = Collections.emptyMap();
 
@@ -130,85 +169,21 @@ public class CredentialsHelper {
             settingsNode.appendChild(serversNode);
         } else {
             // remove the server nodes
-        	removedMavenServers = removeMavenServerDefinitions(serversNode, mavenServerId2jenkinsCredential.keySet(), Boolean.TRUE.equals(isReplaceAllServerDefinitions));
+        	removedMavenServers = removeMavenServerDefinitions(serversNode, mavenServerIds, replaceAll);
         }
 
-        for (Entry<String, StandardUsernameCredentials> mavenServerId2JenkinsCredential : mavenServerId2jenkinsCredential.entrySet()) {
-
-            final StandardUsernameCredentials credential = mavenServerId2JenkinsCredential.getValue();
-            String mavenServerId = mavenServerId2JenkinsCredential.getKey();
-
-            Node currentDefinition = removedMavenServers.get(mavenServerId);
-            if (credential instanceof StandardUsernamePasswordCredentials) {
+        for (ServerDefinitions.Server definition : definitions.get()) {
+            final Element server = doc.createElement("server");
 
-                StandardUsernamePasswordCredentials usernamePasswordCredentials = (StandardUsernamePasswordCredentials) credential;
-                LOGGER.log(Level.FINE, "Maven Server ID {0}: use {1} / {2}", new Object[]{mavenServerId, usernamePasswordCredentials.getId(), usernamePasswordCredentials.getDescription()});
-
-                final Element server = doc.createElement("server");
-
-                // create and add the relevant xml elements
-                final Element id = doc.createElement("id");
-                id.setTextContent(mavenServerId);
-                final Element password = doc.createElement("password");
-                password.setTextContent(Secret.toString(usernamePasswordCredentials.getPassword()));
-                final Element username = doc.createElement("username");
-                username.setTextContent(usernamePasswordCredentials.getUsername());
-
-                server.appendChild(id);
-                server.appendChild(username);
-                server.appendChild(password);
-                copyServerAttributes(currentDefinition,	server);
-
-                serversNode.appendChild(server);
-            } else if (credential instanceof SSHUserPrivateKey) {
-                SSHUserPrivateKey sshUserPrivateKey = (SSHUserPrivateKey) credential;
-                List<String> privateKeys = sshUserPrivateKey.getPrivateKeys();
-                String privateKeyContent;
-
-                if (privateKeys.isEmpty()) {
-                    LOGGER.log(Level.WARNING, "Maven Server ID {0}: not private key defined in {1}, skip", new Object[]{mavenServerId, sshUserPrivateKey.getId()});
-                    continue;
-                } else if (privateKeys.size() == 1) {
-                    LOGGER.log(Level.FINE, "Maven Server ID {0}: use {1}", new Object[]{mavenServerId, sshUserPrivateKey.getId()});
-                    privateKeyContent = privateKeys.get(0);
-                } else {
-                    LOGGER.log(Level.WARNING, "Maven Server ID {0}: more than one ({1}) private key defined in {1}, use first private key", new Object[]{mavenServerId, privateKeys.size(), sshUserPrivateKey.getId()});
-                    privateKeyContent = privateKeys.get(0);
-                }
-
-                final Element server = doc.createElement("server");
-
-                // create and add the relevant xml elements
-                final Element id = doc.createElement("id");
-                id.setTextContent(mavenServerId);
-
-                final Element username = doc.createElement("username");
-                username.setTextContent(sshUserPrivateKey.getUsername());
-
-                workDir.mkdirs();
-                FilePath privateKeyFile = workDir.createTextTempFile("private-key-", ".pem", privateKeyContent, true);
-                privateKeyFile.chmod(0600);
-                tempFiles.add(privateKeyFile.getRemote());
-                LOGGER.log(Level.FINE, "Create {0}", new Object[]{privateKeyFile.getRemote()});
-
-                final Element privateKey = doc.createElement("privateKey");
-                privateKey.setTextContent(privateKeyFile.getRemote());
-
-                final Element passphrase = doc.createElement("passphrase");
-                passphrase.setTextContent(Secret.toString(sshUserPrivateKey.getPassphrase()));
-
-                server.appendChild(id);
-                server.appendChild(username);
-                server.appendChild(privateKey);
-                server.appendChild(passphrase);
-                copyServerAttributes(currentDefinition,	server);
-
-                serversNode.appendChild(server);
-            } else {
-                LOGGER.log(Level.WARNING, "Maven Server ID {0}: credentials type of {1} not supported: {2}",
-                        new Object[]{mavenServerId, credential == null ? null : credential.getId(), credential == null ? null : credential.getClass()});
+            // create and add the relevant xml elements
+            for (String[] element : definition.getElements()) {
+                final Element child = doc.createElement(element[0]);
+                child.setTextContent(element[1]);
+                server.appendChild(child);
             }
+            copyServerAttributes(removedMavenServers.get(definition.id), server);
 
+            serversNode.appendChild(server);
         }
 
         // save the result
@@ -217,9 +192,7 @@ public class CredentialsHelper {
         xformer.setOutputProperty(OutputKeys.INDENT, "yes");
         xformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
         xformer.transform(new DOMSource(doc), new StreamResult(writer));
-        content = writer.toString();
-
-        return content;
+        return writer.toString();
     }
 
     public static @NonNull List<String> secretsForMasking(Run<?, ?> build, List<ServerCredentialMapping> propertiesCredentialMappings) {
@@ -1,10 +1,7 @@
 package org.jenkinsci.plugins.configfiles.maven.security;
 
 import hudson.Extension;
-import hudson.Util;
 
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOCase;
 import org.jenkinsci.plugins.configfiles.Messages;
 import org.kohsuke.stapler.DataBoundConstructor;
 
@@ -32,6 +29,11 @@ public class MavenServerIdSpecification extends DomainSpecification {
     @CheckForNull
     private final String excludes;
 
+    /**
+     * The includes and excludes compiled, the credentials API tests every credential of the domain on every lookup.
+     */
+    private transient ServerIdMatcher matcher;
+
     /**
      * Constructor for stapler.
      * 
@@ -46,6 +48,12 @@ public class MavenServerIdSpecification extends DomainSpecification {
     public MavenServerIdSpecification(String includes, String excludes) {
         this.includes = includes;
         this.excludes = excludes;
+        this.matcher = ServerIdMatcher.compile(includes, excludes);
+    }
+
+    protected Object readResolve() {
+        matcher = ServerIdMatcher.compile(includes, excludes);
+        return this;
     }
 
     public String getExcludes() {
@@ -63,37 +71,8 @@ public class MavenServerIdSpecification extends DomainSpecification {
     public Result test(DomainRequirement requirement) {
         if (requirement instanceof MavenServerIdRequirement) {
             String serverId = ((MavenServerIdRequirement) requirement).getServerId();
-            if (includes != null) {
-                boolean isInclude = false;
-                for (String include : includes.split("[,\\n ]")) {
-                    include = Util.fixEmptyAndTrim(include);
-                    if (include == null) {
-                        continue;
-                    }
-                    if (FilenameUtils.wildcardMatch(serverId, include, IOCase.INSENSITIVE)) {
-                        isInclude = true;
-                        break;
-                    }
-                }
-                if (!isInclude) {
-                    return Result.NEGATIVE;
-                }
-            }
-            if (excludes != null) {
-                boolean isExclude = false;
-                for (String exclude : excludes.split("[,\\n ]")) {
-                    exclude = Util.fixEmptyAndTrim(exclude);
-                    if (exclude == null) {
-                        continue;
-                    }
-                    if (FilenameUtils.wildcardMatch(serverId, exclude, IOCase.INSENSITIVE)) {
-                        isExclude = true;
-                        break;
-                    }
-                }
-                if (isExclude) {
-                    return Result.NEGATIVE;
-                }
+            if (!matcher.matches(serverId)) {
+                return Result.NEGATIVE;
             }
             return Result.PARTIAL;
         }
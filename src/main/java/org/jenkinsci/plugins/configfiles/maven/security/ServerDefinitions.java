@@ -0,0 +1,135 @@
+package org.jenkinsci.plugins.configfiles.maven.security;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import hudson.FilePath;
+import hudson.util.Secret;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@code <server>} definitions to be inserted into a Maven settings file, made from credentials once, no matter
+ * how often they are asked for (private key files are only created once).
+ */
+final class ServerDefinitions {
+
+    private static final Logger LOGGER = Logger.getLogger(CredentialsHelper.class.getName());
+
+    private final Map<String, StandardUsernameCredentials> mavenServerId2jenkinsCredential;
+
+    private final FilePath workDir;
+
+    private final List<String> tempFiles;
+
+    private List<Server> servers;
+
+    /**
+     * @param mavenServerId2jenkinsCredential the credentials (key: Maven serverId, value: Jenkins credentials)
+     * @param workDir                         folder in which credentials files are created if needed (private key files...)
+     * @param tempFiles                       temp files created, these files MUST be deleted by the caller
+     */
+    ServerDefinitions(Map<String, StandardUsernameCredentials> mavenServerId2jenkinsCredential, FilePath workDir, List<String> tempFiles) {
+        this.mavenServerId2jenkinsCredential = mavenServerId2jenkinsCredential;
+        this.workDir = workDir;
+        this.tempFiles = tempFiles;
+    }
+
+    /**
+     * @return the server definitions in the order of the credentials, credentials which can't be used are left out
+     */
+    List<Server> get() throws IOException, InterruptedException {
+        if (servers != null) {
+            return servers;
+        }
+        List<Server> servers = new ArrayList<>();
+        for (Map.Entry<String, StandardUsernameCredentials> mavenServerId2JenkinsCredential : mavenServerId2jenkinsCredential.entrySet()) {
+
+            final StandardUsernameCredentials credential = mavenServerId2JenkinsCredential.getValue();
+            String mavenServerId = mavenServerId2JenkinsCredential.getKey();
+
+            if (credential instanceof StandardUsernamePasswordCredentials) {
+
+                StandardUsernamePasswordCredentials usernamePasswordCredentials = (StandardUsernamePasswordCredentials) credential;
+                LOGGER.log(Level.FINE, "Maven Server ID {0}: use {1} / {2}", new Object[]{mavenServerId, usernamePasswordCredentials.getId(), usernamePasswordCredentials.getDescription()});
+
+                servers.add(new Server(mavenServerId, usernamePasswordCredentials.getUsername(),
+                        Secret.toString(usernamePasswordCredentials.getPassword()), null, null));
+            } else if (credential instanceof SSHUserPrivateKey) {
+                SSHUserPrivateKey sshUserPrivateKey = (SSHUserPrivateKey) credential;
+                List<String> privateKeys = sshUserPrivateKey.getPrivateKeys();
+                String privateKeyContent;
+
+                if (privateKeys.isEmpty()) {
+                    LOGGER.log(Level.WARNING, "Maven Server ID {0}: not private key defined in {1}, skip", new Object[]{mavenServerId, sshUserPrivateKey.getId()});
+                    continue;
+                } else if (privateKeys.size() == 1) {
+                    LOGGER.log(Level.FINE, "Maven Server ID {0}: use {1}", new Object[]{mavenServerId, sshUserPrivateKey.getId()});
+                    privateKeyContent = privateKeys.get(0);
+                } else {
+                    LOGGER.log(Level.WARNING, "Maven Server ID {0}: more than one ({1}) private key defined in {1}, use first private key", new Object[]{mavenServerId, privateKeys.size(), sshUserPrivateKey.getId()});
+                    privateKeyContent = privateKeys.get(0);
+                }
+
+                workDir.mkdirs();
+                FilePath privateKeyFile = workDir.createTextTempFile("private-key-", ".pem", privateKeyContent, true);
+                privateKeyFile.chmod(0600);
+                tempFiles.add(privateKeyFile.getRemote());
+                LOGGER.log(Level.FINE, "Create {0}", new Object[]{privateKeyFile.getRemote()});
+
+                servers.add(new Server(mavenServerId, sshUserPrivateKey.getUsername(), null,
+                        privateKeyFile.getRemote(), Secret.toString(sshUserPrivateKey.getPassphrase())));
+            } else {
+                LOGGER.log(Level.WARNING, "Maven Server ID {0}: credentials type of {1} not supported: {2}",
+                        new Object[]{mavenServerId, credential == null ? null : credential.getId(), credential == null ? null : credential.getClass()});
+            }
+        }
+        this.servers = servers;
+        return servers;
+    }
+
+    /**
+     * A {@code <server>} definition, either with a password or with a private key.
+     */
+    static final class Server {
+
+        final String id;
+
+        final String username;
+
+        final String password;
+
+        final String privateKey;
+
+        final String passphrase;
+
+        Server(String id, String username, String password, String privateKey, String passphrase) {
+            this.id = id;
+            this.username = username;
+            this.password = password;
+            this.privateKey = privateKey;
+            this.passphrase = passphrase;
+        }
+
+        /**
+         * @return the child elements of the definition, in order, as name and text content
+         */
+        List<String[]> getElements() {
+            List<String[]> elements = new ArrayList<>(4);
+            elements.add(new String[]{"id", id});
+            elements.add(new String[]{"username", username});
+            if (privateKey == null) {
+                elements.add(new String[]{"password", password});
+            } else {
+                elements.add(new String[]{"privateKey", privateKey});
+                elements.add(new String[]{"passphrase", passphrase});
+            }
+            return elements;
+        }
+    }
+}
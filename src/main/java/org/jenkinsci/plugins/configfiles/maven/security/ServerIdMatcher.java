@@ -0,0 +1,185 @@
+package org.jenkinsci.plugins.configfiles.maven.security;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The includes and excludes of a {@link MavenServerIdSpecification}, compiled once. Matches case-insensitively with
+ * <code>*</code> and <code>?</code> wildcards, like
+ * {@link org.apache.commons.io.FilenameUtils#wildcardMatch(String, String, org.apache.commons.io.IOCase)}.
+ * <p>
+ * Patterns without wildcards are looked up in a hash set, the others are split at their <code>*</code> into literal
+ * segments which are matched left to right without backtracking. Immutable.
+ */
+final class ServerIdMatcher {
+
+    private static final Pattern SEPARATOR = Pattern.compile("[,\\n ]");
+
+    /**
+     * FilenameUtils drops a <code>*</code> followed by <code>?</code>, so does this matcher.
+     */
+    private static final Pattern STARS_BEFORE_QUESTION_MARK = Pattern.compile("\\*+\\?");
+
+    /**
+     * {@code null} signifies include everything.
+     */
+    @CheckForNull
+    private final Patterns includes;
+
+    /**
+     * {@code null} signifies exclude nothing.
+     */
+    @CheckForNull
+    private final Patterns excludes;
+
+    private ServerIdMatcher(@CheckForNull Patterns includes, @CheckForNull Patterns excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param includes serverIds to match, see {@link MavenServerIdSpecification#getIncludes()}
+     * @param excludes serverIds to explicitly not match, see {@link MavenServerIdSpecification#getExcludes()}
+     * @return the compiled matcher
+     */
+    @NonNull
+    static ServerIdMatcher compile(@CheckForNull String includes, @CheckForNull String excludes) {
+        return new ServerIdMatcher(includes == null ? null : Patterns.compile(includes),
+                excludes == null ? null : Patterns.compile(excludes));
+    }
+
+    /**
+     * @param serverId the serverId
+     * @return <code>true</code> if the serverId is included and not excluded
+     */
+    boolean matches(@CheckForNull String serverId) {
+        if (includes != null && !includes.matches(serverId)) {
+            return false;
+        }
+        return excludes == null || !excludes.matches(serverId);
+    }
+
+    /**
+     * Folds the case the same way as {@link String#regionMatches(boolean, int, String, int, int)}.
+     */
+    private static String fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A comma separated set of patterns.
+     */
+    private static final class Patterns {
+
+        private final Set<String> exact;
+
+        private final Glob[] globs;
+
+        private Patterns(Set<String> exact, Glob[] globs) {
+            this.exact = exact;
+            this.globs = globs;
+        }
+
+        static Patterns compile(String patterns) {
+            Set<String> exact = new HashSet<>();
+            List<Glob> globs = new ArrayList<>();
+            for (String pattern : SEPARATOR.split(patterns)) {
+                pattern = Util.fixEmptyAndTrim(pattern);
+                if (pattern == null) {
+                    continue;
+                }
+                pattern = STARS_BEFORE_QUESTION_MARK.matcher(fold(pattern)).replaceAll("?");
+                if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0) {
+                    exact.add(pattern);
+                } else {
+                    globs.add(new Glob(pattern.split("\\*", -1)));
+                }
+            }
+            return new Patterns(exact, globs.toArray(new Glob[0]));
+        }
+
+        boolean matches(@CheckForNull String serverId) {
+            if (serverId == null) {
+                return false;
+            }
+            String folded = fold(serverId);
+            if (exact.contains(folded)) {
+                return true;
+            }
+            for (Glob glob : globs) {
+                if (glob.matches(folded)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A pattern with wildcards.
+     */
+    private static final class Glob {
+
+        /**
+         * The folded literal segments between the <code>*</code>, which may contain <code>?</code>. The first one is
+         * anchored at the start and the last one at the end.
+         */
+        private final String[] segments;
+
+        Glob(String[] segments) {
+            this.segments = segments;
+        }
+
+        boolean matches(String s) {
+            String head = segments[0];
+            if (segments.length == 1) {
+                return s.length() == head.length() && matchesAt(s, 0, head);
+            }
+            String tail = segments[segments.length - 1];
+            int end = s.length() - tail.length();
+            if (end < head.length() || !matchesAt(s, 0, head) || !matchesAt(s, end, tail)) {
+                return false;
+            }
+            // the segments have a fixed length, so the leftmost match of each leaves the most room for the next ones
+            int from = head.length();
+            for (int i = 1; i < segments.length - 1; i++) {
+                int at = indexOf(s, segments[i], from, end);
+                if (at < 0) {
+                    return false;
+                }
+                from = at + segments[i].length();
+            }
+            return true;
+        }
+
+        private static int indexOf(String s, String segment, int from, int end) {
+            for (int at = from; at <= end - segment.length(); at++) {
+                if (matchesAt(s, at, segment)) {
+                    return at;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean matchesAt(String s, int at, String segment) {
+            for (int i = 0; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                if (c != '?' && c != s.charAt(at + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
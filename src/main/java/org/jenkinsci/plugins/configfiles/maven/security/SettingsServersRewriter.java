@@ -0,0 +1,558 @@
+package org.jenkinsci.plugins.configfiles.maven.security;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Rewrites the {@code <server>} definitions of Maven settings for {@link CredentialsHelper#fillAuthentication}. The
+ * settings are read with StAX and serialized once, along with the position and id of each child of the first
+ * {@code <servers>}, so that credentials are filled in by splicing the new {@code <server>} definitions into the text.
+ * The settings are the same as the ones the DOM makes, only the formatting of the untouched parts is kept. Settings
+ * which are not handled the same way (not a {@code <settings>} document, DTDs, entity references, invalid XML...) are
+ * left to the DOM.
+ * <p>
+ * An analyzed rewriter can be filled in any number of times, see {@link SettingsTemplate}.
+ */
+final class SettingsServersRewriter {
+
+    private static final Logger LOGGER = Logger.getLogger(SettingsServersRewriter.class.getName());
+
+    private static final String DEFAULT_INDENT = "  ";
+
+    private static final SettingsServersRewriter UNSUPPORTED = new SettingsServersRewriter(null, false, 0, 0, Collections.emptyList(), null);
+
+    /**
+     * The serialized settings, <code>null</code> if they have to be rewritten with the DOM.
+     */
+    @CheckForNull
+    private final String text;
+
+    /**
+     * Whether the settings have a {@code <servers>}, else one is inserted.
+     */
+    private final boolean hasServers;
+
+    /**
+     * The part of {@link #text} which is rewritten: the children of {@code <servers>}, or the whitespace before
+     * {@code </settings>}.
+     */
+    private final int start, end;
+
+    /**
+     * The children of {@code <servers>}, covering {@link #start} to {@link #end}.
+     */
+    private final List<Child> children;
+
+    /**
+     * The indentation of the children of {@code <settings>}, used for the inserted elements.
+     */
+    private final String indent;
+
+    private SettingsServersRewriter(@CheckForNull String text, boolean hasServers, int start, int end,
+                                    List<Child> children, @CheckForNull String indent) {
+        this.text = text;
+        this.hasServers = hasServers;
+        this.start = start;
+        this.end = end;
+        this.children = children;
+        this.indent = indent == null ? DEFAULT_INDENT : indent;
+    }
+
+    /**
+     * Rewrites the server definitions of settings.
+     *
+     * @param content     the settings
+     * @param replaceAll  whether all the {@code <server>} definitions are replaced, or only the ones with the given ids
+     * @param serverIds   the ids of the servers with credentials
+     * @param definitions the server definitions made from the credentials
+     * @return the settings with the server definitions, <code>null</code> if they have to be rewritten with the DOM
+     */
+    @CheckForNull
+    static String rewrite(@NonNull String content, boolean replaceAll, Set<String> serverIds, ServerDefinitions definitions)
+            throws IOException, InterruptedException {
+        return analyze(content).fill(replaceAll, serverIds, definitions);
+    }
+
+    /**
+     * @return the number of chars the rewriter holds
+     */
+    long size() {
+        return text == null ? 0 : text.length();
+    }
+
+    /**
+     * Fills in the server definitions.
+     *
+     * @param replaceAll  whether all the {@code <server>} definitions are replaced, or only the ones with the given ids
+     * @param serverIds   the ids of the servers with credentials
+     * @param definitions the server definitions made from the credentials
+     * @return the settings with the server definitions, <code>null</code> if they have to be rewritten with the DOM
+     */
+    @CheckForNull
+    String fill(boolean replaceAll, Set<String> serverIds, ServerDefinitions definitions) throws IOException, InterruptedException {
+        if (text == null) {
+            return null;
+        }
+        for (String serverId : serverIds) {
+            if (serverId == null) {
+                // the DOM takes text nodes for servers without id then
+                return null;
+            }
+        }
+        List<ServerDefinitions.Server> servers = definitions.get();
+        StringBuilder out = new StringBuilder(text.length() + 256 * servers.size());
+        out.append(text, 0, start);
+        if (hasServers) {
+            Map<String, Child> removed = new HashMap<>();
+            // whitespace which is only written if followed by something which is kept
+            int pendingSpace = -1;
+            for (Child child : children) {
+                if (child.space) {
+                    if (!replaceAll && pendingSpace < 0) {
+                        pendingSpace = child.start;
+                    }
+                    continue;
+                }
+                boolean hasCredentials = child.serverId != null && serverIds.contains(child.serverId);
+                if (hasCredentials) {
+                    removed.put(child.serverId, child);
+                }
+                if (replaceAll || hasCredentials) {
+                    pendingSpace = -1;
+                } else {
+                    out.append(text, pendingSpace < 0 ? child.start : pendingSpace, child.end);
+                    pendingSpace = -1;
+                }
+            }
+            if (servers.isEmpty()) {
+                if (pendingSpace >= 0) {
+                    out.append(text, pendingSpace, end);
+                }
+            } else {
+                appendServers(out, servers, removed, 2);
+                newLine(out, 1);
+            }
+        } else {
+            newLine(out, 1);
+            out.append("<servers>");
+            if (!servers.isEmpty()) {
+                appendServers(out, servers, Collections.emptyMap(), 2);
+                newLine(out, 1);
+            }
+            out.append("</servers>");
+            newLine(out, 0);
+        }
+        out.append(text, end, text.length());
+        return out.toString();
+    }
+
+    private void appendServers(StringBuilder out, List<ServerDefinitions.Server> servers, Map<String, Child> removed, int level) {
+        for (ServerDefinitions.Server server : servers) {
+            newLine(out, level);
+            out.append("<server>");
+            for (String[] element : server.getElements()) {
+                newLine(out, level + 1);
+                out.append('<').append(element[0]).append('>');
+                if (element[1] != null) {
+                    escape(element[1], false, out);
+                }
+                out.append("</").append(element[0]).append('>');
+            }
+            Child definition = removed.get(server.id);
+            if (definition != null) {
+                for (String kept : definition.kept) {
+                    newLine(out, level + 1);
+                    out.append(kept);
+                }
+            }
+            newLine(out, level);
+            out.append("</server>");
+        }
+    }
+
+    private void newLine(StringBuilder out, int level) {
+        out.append('\n');
+        for (int i = 0; i < level; i++) {
+            out.append(indent);
+        }
+    }
+
+    /**
+     * Analyzes settings.
+     *
+     * @param content the settings
+     * @return the rewriter of the settings
+     */
+    @NonNull
+    static SettingsServersRewriter analyze(@NonNull String content) {
+        try {
+            return analyze(content, newReader(content));
+        } catch (XMLStreamException e) {
+            LOGGER.log(Level.FINE, "Could not analyze the Maven settings, rewriting them with the DOM", e);
+            return UNSUPPORTED;
+        }
+    }
+
+    private static XMLEventReader newReader(String content) throws XMLStreamException {
+        XMLInputFactory inputFactory = XMLInputFactory.newDefaultFactory();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory.createXMLEventReader(new StringReader(content));
+    }
+
+    private static SettingsServersRewriter analyze(String content, XMLEventReader reader) throws XMLStreamException {
+        StringBuilder out = new StringBuilder(content.length() + 64);
+        List<Child> children = new ArrayList<>();
+        String indent = null;
+        int depth = 0;
+        boolean afterDeclaration = false;
+        boolean inServers = false;
+        int serversStart = -1;
+        // start of the whitespace written since the last child of <settings>
+        int rootSpace = -1;
+        List<XMLEvent> child = null;
+        try {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (child != null) {
+                    // a child element of <servers>, analyzed once it is complete
+                    child.add(event);
+                    if (event.isStartElement()) {
+                        depth++;
+                    } else if (event.isEndElement() && --depth == 2) {
+                        int childStart = out.length();
+                        for (XMLEvent childEvent : child) {
+                            write(childEvent, out);
+                        }
+                        children.add(new Child(childStart, out.length(), false, getServerId(child), getKeptChildren(child)));
+                        child = null;
+                    }
+                    continue;
+                }
+                if (afterDeclaration) {
+                    afterDeclaration = false;
+                    if (!isSpace(event)) {
+                        out.append('\n');
+                    }
+                }
+                switch (event.getEventType()) {
+                    case XMLStreamConstants.DTD:
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        return UNSUPPORTED;
+                    case XMLStreamConstants.START_DOCUMENT:
+                        // the content is provided as UTF-8, whatever the declared encoding was
+                        StartDocument declaration = (StartDocument) event;
+                        out.append("<?xml version=\"").append(declaration.getVersion() == null ? "1.0" : declaration.getVersion())
+                                .append("\" encoding=\"UTF-8\"");
+                        if (declaration.standaloneSet()) {
+                            out.append(" standalone=\"").append(declaration.isStandalone() ? "yes" : "no").append('"');
+                        }
+                        out.append("?>");
+                        afterDeclaration = true;
+                        break;
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = qualifiedName(event.asStartElement().getName());
+                        if (depth == 0 && !"settings".equals(name)) {
+                            return UNSUPPORTED;
+                        }
+                        depth++;
+                        if (inServers) {
+                            child = new ArrayList<>();
+                            child.add(event);
+                            break;
+                        }
+                        if (depth == 2) {
+                            if (indent == null && rootSpace >= 0) {
+                                indent = getIndent(out.substring(rootSpace));
+                            }
+                            rootSpace = -1;
+                        }
+                        write(event, out);
+                        if (depth == 2 && serversStart < 0 && "servers".equals(name)) {
+                            inServers = true;
+                            serversStart = out.length();
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        depth--;
+                        if (inServers) {
+                            SettingsServersRewriter rewriter = new SettingsServersRewriter(null, true, serversStart, out.length(), children, null);
+                            inServers = false;
+                            write(event, out);
+                            // the remaining events are only copied
+                            return rewriter.complete(out, reader, indent);
+                        }
+                        if (depth == 0) {
+                            // no <servers>, inserted before </settings>
+                            int end = out.length();
+                            write(event, out);
+                            return new SettingsServersRewriter(null, false, rootSpace >= 0 ? rootSpace : end, end,
+                                    Collections.emptyList(), indent).complete(out, reader, indent);
+                        }
+                        if (depth == 1) {
+                            rootSpace = -1;
+                        }
+                        write(event, out);
+                        break;
+                    default:
+                        if (inServers) {
+                            int childStart = out.length();
+                            write(event, out);
+                            children.add(new Child(childStart, out.length(), isSpace(event), null, Collections.emptyList()));
+                        } else {
+                            if (depth == 1) {
+                                if (!isSpace(event)) {
+                                    rootSpace = -1;
+                                } else if (rootSpace < 0) {
+                                    rootSpace = out.length();
+                                }
+                            }
+                            write(event, out);
+                        }
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        throw new XMLStreamException("no end of the settings");
+    }
+
+    /**
+     * Copies the rest of the settings, which is not rewritten.
+     */
+    private SettingsServersRewriter complete(StringBuilder out, XMLEventReader reader, @CheckForNull String indent) throws XMLStreamException {
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.getEventType() == XMLStreamConstants.DTD || event.getEventType() == XMLStreamConstants.ENTITY_REFERENCE) {
+                return UNSUPPORTED;
+            }
+            write(event, out);
+        }
+        return new SettingsServersRewriter(out.toString(), hasServers, start, end, children, indent);
+    }
+
+    /**
+     * Same as {@code CredentialsHelper#copyServerAttributes}, which moves the nodes out of the live child list it
+     * iterates over and so skips the node following each moved one.
+     */
+    private static List<String> getKeptChildren(List<XMLEvent> server) throws XMLStreamException {
+        List<List<XMLEvent>> nodes = getChildren(server);
+        List<String> kept = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            XMLEvent first = nodes.get(i).get(0);
+            if (first.isStartElement()
+                    && CredentialsHelper.ATTRIBUTES_TO_KEEP.contains(qualifiedName(first.asStartElement().getName()).trim())) {
+                StringBuilder node = new StringBuilder();
+                for (XMLEvent event : nodes.remove(i)) {
+                    write(event, node);
+                }
+                kept.add(node.toString());
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Same as {@code CredentialsHelper#getServerId}: the trimmed text of the first child named {@code id}.
+     */
+    @CheckForNull
+    private static String getServerId(List<XMLEvent> server) {
+        for (List<XMLEvent> node : getChildren(server)) {
+            XMLEvent first = node.get(0);
+            if (first.isStartElement() && "id".equals(qualifiedName(first.asStartElement().getName()).toLowerCase())) {
+                StringBuilder text = new StringBuilder();
+                for (XMLEvent event : node) {
+                    if (event.isCharacters()) {
+                        text.append(event.asCharacters().getData());
+                    }
+                }
+                return Util.fixEmptyAndTrim(text.toString());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the child nodes of an element, each element with all its events
+     */
+    private static List<List<XMLEvent>> getChildren(List<XMLEvent> element) {
+        List<List<XMLEvent>> children = new ArrayList<>();
+        List<XMLEvent> current = null;
+        int depth = 0;
+        for (XMLEvent event : element.subList(1, element.size() - 1)) {
+            if (depth == 0) {
+                current = new ArrayList<>();
+                children.add(current);
+            }
+            current.add(event);
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+        return children;
+    }
+
+    @CheckForNull
+    private static String getIndent(String space) {
+        int lineStart = space.lastIndexOf('\n');
+        return lineStart < 0 || lineStart == space.length() - 1 ? null : space.substring(lineStart + 1);
+    }
+
+    private static boolean isSpace(XMLEvent event) {
+        if (!event.isCharacters()) {
+            return false;
+        }
+        Characters characters = event.asCharacters();
+        return !characters.isCData() && characters.isWhiteSpace();
+    }
+
+    private static void write(XMLEvent event, StringBuilder out) throws XMLStreamException {
+        switch (event.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                StartElement element = event.asStartElement();
+                out.append('<').append(qualifiedName(element.getName()));
+                for (Iterator<Namespace> namespaces = element.getNamespaces(); namespaces.hasNext(); ) {
+                    Namespace namespace = namespaces.next();
+                    out.append(namespace.isDefaultNamespaceDeclaration() ? " xmlns" : " xmlns:" + namespace.getPrefix()).append("=\"");
+                    escape(namespace.getNamespaceURI(), true, out);
+                    out.append('"');
+                }
+                for (Iterator<Attribute> attributes = element.getAttributes(); attributes.hasNext(); ) {
+                    Attribute attribute = attributes.next();
+                    out.append(' ').append(qualifiedName(attribute.getName())).append("=\"");
+                    escape(attribute.getValue(), true, out);
+                    out.append('"');
+                }
+                out.append('>');
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                out.append("</").append(qualifiedName(event.asEndElement().getName())).append('>');
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                Characters characters = event.asCharacters();
+                if (characters.isCData()) {
+                    out.append("<![CDATA[").append(characters.getData()).append("]]>");
+                } else {
+                    escape(characters.getData(), false, out);
+                }
+                break;
+            case XMLStreamConstants.COMMENT:
+                out.append("<!--").append(((Comment) event).getText()).append("-->");
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                ProcessingInstruction instruction = (ProcessingInstruction) event;
+                out.append("<?").append(instruction.getTarget());
+                if (instruction.getData() != null && !instruction.getData().isEmpty()) {
+                    out.append(' ').append(instruction.getData());
+                }
+                out.append("?>");
+                break;
+            case XMLStreamConstants.END_DOCUMENT:
+                break;
+            default:
+                throw new XMLStreamException("unexpected event " + event.getEventType());
+        }
+    }
+
+    private static void escape(String text, boolean attribute, StringBuilder out) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append(attribute ? "&quot;" : "\"");
+                    break;
+                case '\r':
+                    out.append("&#13;");
+                    break;
+                case '\n':
+                case '\t':
+                    if (attribute) {
+                        out.append("&#").append((int) c).append(';');
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+                default:
+                    out.append(c);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the name as the DOM, which is not namespace aware, has it
+     */
+    private static String qualifiedName(QName name) {
+        return name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart();
+    }
+
+    /**
+     * A child of {@code <servers>} in {@link #text}.
+     */
+    private static final class Child {
+
+        final int start, end;
+
+        /**
+         * Whether the child is whitespace, written only if followed by something which is kept.
+         */
+        final boolean space;
+
+        @CheckForNull
+        final String serverId;
+
+        /**
+         * The children moved over to the definition replacing this one.
+         */
+        final List<String> kept;
+
+        Child(int start, int end, boolean space, @CheckForNull String serverId, List<String> kept) {
+            this.start = start;
+            this.end = end;
+            this.space = space;
+            this.serverId = serverId;
+            this.kept = kept;
+        }
+    }
+}
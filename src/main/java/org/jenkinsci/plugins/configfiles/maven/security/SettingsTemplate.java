@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.configfiles.maven.security;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The {@link SettingsServersRewriter} of the settings of a config, analyzed once and reused for every build while the
+ * content of the config is unchanged, the same way {@code TokenTemplate} caches token templates. Settings which are
+ * left to the DOM are cached as such.
+ * <p>
+ * Recently used templates are kept by config id, bounded by
+ * <code>-Dorg.jenkinsci.plugins.configfiles.maven.security.SettingsTemplate.maxCachedChars</code> (16M by default).
+ */
+final class SettingsTemplate {
+
+    private static final long MAX_CACHED_CHARS = Long.getLong(SettingsTemplate.class.getName() + ".maxCachedChars", 16L * 1024 * 1024);
+
+    private static final LinkedHashMap<String, SettingsTemplate> TEMPLATES = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long cachedChars;
+
+    private final String source;
+
+    private final SettingsServersRewriter rewriter;
+
+    private SettingsTemplate(String source, SettingsServersRewriter rewriter) {
+        this.source = source;
+        this.rewriter = rewriter;
+    }
+
+    /**
+     * @param id      id of the config the settings belong to
+     * @param content the settings
+     * @return the (cached) rewriter of the settings
+     */
+    @NonNull
+    static SettingsServersRewriter of(@NonNull String id, @NonNull String content) {
+        synchronized (TEMPLATES) {
+            SettingsTemplate template = TEMPLATES.get(id);
+            if (template != null && template.source.equals(content)) {
+                return template.rewriter;
+            }
+        }
+        SettingsTemplate template = new SettingsTemplate(content, SettingsServersRewriter.analyze(content));
+        synchronized (TEMPLATES) {
+            SettingsTemplate previous = TEMPLATES.remove(id);
+            if (previous != null) {
+                cachedChars -= previous.size();
+            }
+            if (template.size() <= MAX_CACHED_CHARS) {
+                TEMPLATES.put(id, template);
+                cachedChars += template.size();
+                Iterator<SettingsTemplate> eldest = TEMPLATES.values().iterator();
+                while (cachedChars > MAX_CACHED_CHARS && eldest.hasNext()) {
+                    cachedChars -= eldest.next().size();
+                    eldest.remove();
+                }
+            }
+        }
+        return template.rewriter;
+    }
+
+    private long size() {
+        return source.length() + rewriter.size();
+    }
+}
@@ -1,10 +1,10 @@
 package org.jenkinsci.plugins.configfiles.properties.security;
 
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import org.jenkinsci.plugins.configfiles.common.BatchCredentialsResolver;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.model.Run;
 import hudson.model.TaskListener;
@@ -31,6 +31,7 @@ public class CredentialsHelper {
 
     public static Map<String, StandardUsernameCredentials> resolveCredentials(Run<?, ?> build, final List<PropertiesCredentialMapping> propertiesCredentialMappings, TaskListener listener) {
         Map<String, StandardUsernameCredentials> propertiesCredentialsMap = new HashMap<>();
+        List<BatchCredentialsResolver.Request> requests = new ArrayList<>(propertiesCredentialMappings.size());
         for (PropertiesCredentialMapping propertiesCredentialMapping : propertiesCredentialMappings) {
             final String credentialsId = propertiesCredentialMapping.getCredentialsId();
             final String propertyKey = propertiesCredentialMapping.getPropertyKey();
@@ -39,13 +40,19 @@ public class CredentialsHelper {
             if (propertyKey != null && !propertyKey.isBlank()) {
                 domainRequirements = Collections.singletonList(new PropertyKeyRequirement(propertyKey));
             }
+            requests.add(new BatchCredentialsResolver.Request(credentialsId, domainRequirements, propertyKey));
+        }
 
-            final StandardUsernameCredentials c = CredentialsProvider.findCredentialById(credentialsId, StandardUsernameCredentials.class, build, domainRequirements);
+        // may be resolved concurrently, reported in the order of the mappings
+        List<StandardUsernameCredentials> credentials = new BatchCredentialsResolver<>(StandardUsernameCredentials.class, build).findAll(requests);
+        for (int i = 0; i < propertiesCredentialMappings.size(); i++) {
+            final PropertiesCredentialMapping propertiesCredentialMapping = propertiesCredentialMappings.get(i);
+            final StandardUsernameCredentials c = credentials.get(i);
 
             if (c != null) {
-                propertiesCredentialsMap.put(propertyKey, c);
+                propertiesCredentialsMap.put(propertiesCredentialMapping.getPropertyKey(), c);
             } else {
-                listener.getLogger().println("Could not find credentials [" + credentialsId + "] for " + build);
+                listener.getLogger().println("Could not find credentials [" + propertiesCredentialMapping.getCredentialsId() + "] for " + build);
             }
         }
         return propertiesCredentialsMap;
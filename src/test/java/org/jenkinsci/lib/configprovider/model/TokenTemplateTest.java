@@ -0,0 +1,64 @@
+package org.jenkinsci.lib.configprovider.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import hudson.EnvVars;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TokenTemplateTest {
+
+    private static final EnvVars ENV = new EnvVars(
+            "JOB_NAME", "job",
+            "BUILD_NUMBER", "42",
+            "DOLLAR", "$JOB_NAME",
+            "BRACES", "${BUILD_NUMBER}",
+            "EMPTY", "",
+            "a.b", "dotted");
+
+    @Test
+    void expandsLikeEnvVars() {
+        List<String> contents = List.of(
+                "",
+                "no variables",
+                "$JOB_NAME",
+                "${JOB_NAME}",
+                "$JOB_NAME-$BUILD_NUMBER/${BUILD_NUMBER}",
+                "$UNKNOWN and ${UNKNOWN} stay",
+                "$$JOB_NAME is escaped, $$$JOB_NAME is not",
+                "$DOLLAR and $BRACES are not expanded again",
+                "${EMPTY}|$EMPTY|",
+                "${a.b} but $a.b",
+                "${ENV, var=\"JOB_NAME\"} is a token macro",
+                "trailing $",
+                "${ unbalanced",
+                "${}",
+                "$JOB_NAMEsuffix ${JOB_NAME}suffix",
+                "€$JOB_NAME\n\t${BUILD_NUMBER}ä");
+        for (String content : contents) {
+            assertEquals(ENV.expand(content), TokenTemplate.compile(content).expand(ENV), content);
+        }
+    }
+
+    @Test
+    void expandsRandomContentLikeEnvVars() {
+        String[] pieces = {"$", "{", "}", "JOB_NAME", "BUILD_NUMBER", "DOLLAR", "UNKNOWN", "a.b", ".", " ", "-", "x"};
+        Random random = new Random(57417);
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) {
+                content.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertEquals(ENV.expand(content.toString()), TokenTemplate.compile(content.toString()).expand(ENV), content.toString());
+        }
+    }
+
+    @Test
+    void templatesAreCachedByIdAndContent() {
+        TokenTemplate template = TokenTemplate.of("id", "$JOB_NAME");
+        assertSame(template, TokenTemplate.of("id", new String("$JOB_NAME")));
+        assertEquals("job!", TokenTemplate.of("id", "$JOB_NAME!").expand(ENV));
+    }
+}
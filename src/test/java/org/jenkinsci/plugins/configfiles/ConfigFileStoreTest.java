@@ -3,9 +3,19 @@ package org.jenkinsci.plugins.configfiles;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.cloudbees.hudson.plugins.folder.Folder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.hamcrest.Matchers;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+import org.jenkinsci.plugins.configfiles.json.JsonConfig;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -57,4 +67,97 @@ class ConfigFileStoreTest {
         store.remove(anotherConfig.id);
         assertEquals(0, store.getConfigs().size());
     }
+
+    @Test
+    void testGetByIdAfterSetConfigs(JenkinsRule j) {
+        GlobalConfigFiles store = GlobalConfigFiles.get();
+        store.save(new CustomConfig("replaced", "name", "comment", "content"));
+
+        CustomConfig first = new CustomConfig("first", "name", "comment", "content");
+        CustomConfig second = new CustomConfig("second", "name", "comment", "content");
+        store.setConfigs(List.of(first, second));
+
+        assertEquals(2, store.getConfigs().size());
+        assertThat(store.getById("first"), Matchers.is(first));
+        assertThat(store.getById("second"), Matchers.is(second));
+        assertNull(store.getById("replaced"));
+        assertNull(store.getById(null));
+    }
+
+    @Test
+    void testGetConfigsByProvider(JenkinsRule j) {
+        GlobalConfigFiles store = GlobalConfigFiles.get();
+        store.save(new CustomConfig("custom", "name", "comment", "content"));
+        store.save(new JsonConfig("json", "name", "comment", "{}"));
+
+        assertThat(store.getConfigs(CustomConfig.CustomConfigProvider.class), Matchers.hasSize(1));
+        assertThat(store.getConfigs(JsonConfig.JsonConfigProvider.class), Matchers.hasSize(1));
+
+        // replacing a config with one of another type must move it between the provider views
+        store.save(new JsonConfig("custom", "name", "comment", "{}"));
+        assertThat(store.getConfigs(CustomConfig.CustomConfigProvider.class), Matchers.empty());
+        assertThat(store.getConfigs(JsonConfig.JsonConfigProvider.class), Matchers.hasSize(2));
+
+        store.remove("json");
+        assertThat(store.getConfigs(JsonConfig.JsonConfigProvider.class), Matchers.hasSize(1));
+
+        // the index carried over to the next snapshots stays sorted by id like the configs
+        store.save(new JsonConfig("a", "name", "comment", "{}"));
+        store.save(new JsonConfig("z", "name", "comment", "{}"));
+        List<String> ids = new ArrayList<>();
+        for (Config c : store.getConfigs(JsonConfig.JsonConfigProvider.class)) {
+            ids.add(c.id);
+        }
+        assertEquals(List.of("a", "custom", "z"), ids);
+    }
+
+    @Test
+    void testConcurrentReadsWhileSaving(JenkinsRule j) throws Exception {
+        Folder folder = j.jenkins.createProject(Folder.class, "folder");
+        FolderConfigFileProperty property = new FolderConfigFileProperty(new ArrayList<>());
+        folder.addProperty(property);
+
+        for (ConfigFileStore store : List.of(GlobalConfigFiles.get(), property)) {
+            for (int i = 0; i < 20; i++) {
+                store.save(new CustomConfig("id" + i, "name", "comment", "content"));
+            }
+            readWhileSaving(store, 20);
+        }
+    }
+
+    private static void readWhileSaving(ConfigFileStore store, int size) throws Exception {
+        AtomicBoolean saving = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(readers.submit(() -> {
+                    int reads = 0;
+                    do {
+                        // every config must be visible all the time, also while it is replaced
+                        int found = 0;
+                        for (Config c : store.getConfigs()) {
+                            assertNotNull(c.id);
+                            found++;
+                        }
+                        assertEquals(size, found);
+                        assertEquals(size, store.getConfigs(CustomConfig.CustomConfigProvider.class).size());
+                        assertNotNull(store.getById("id" + (reads % size)));
+                        reads++;
+                    } while (saving.get());
+                }));
+            }
+            for (int i = 0; i < 200; i++) {
+                store.save(new CustomConfig("id" + (i % size), "name " + i, "comment", "content"));
+            }
+            saving.set(false);
+            for (Future<?> result : results) {
+                // rethrows whatever a reader ran into
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            saving.set(false);
+            readers.shutdownNow();
+        }
+    }
 }
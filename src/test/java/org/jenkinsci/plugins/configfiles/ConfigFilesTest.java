@@ -2,15 +2,20 @@ package org.jenkinsci.plugins.configfiles;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.cloudbees.hudson.plugins.folder.Folder;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import jenkins.model.Jenkins;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.TestExtension;
@@ -42,6 +47,96 @@ class ConfigFilesTest {
         assertNotNull(retrievedConfig);
     }
 
+    @Test
+    void lookupFollowsStoreAndHierarchyModifications(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new CustomConfig(CONFIG_ID, "global", "comment", "content"));
+        Folder folder = j.jenkins.createProject(Folder.class, "folder");
+        Folder child = folder.createProject(Folder.class, "child");
+
+        Config config = ConfigFiles.getByIdOrNull((ItemGroup) child, CONFIG_ID);
+        assertEquals("global", config.name);
+
+        FolderConfigFileProperty property = new FolderConfigFileProperty(new ArrayList<>());
+        folder.addProperty(property);
+        property.save(new CustomConfig(CONFIG_ID, "folder", "comment", "content"));
+        config = ConfigFiles.getByIdOrNull((ItemGroup) child, CONFIG_ID);
+        assertEquals("folder", config.name);
+
+        folder.renameTo("renamed");
+        config = ConfigFiles.getByIdOrNull((ItemGroup) child, CONFIG_ID);
+        assertEquals("folder", config.name);
+
+        folder.getProperties().remove(FolderConfigFileProperty.class);
+        folder.save();
+        config = ConfigFiles.getByIdOrNull((ItemGroup) child, CONFIG_ID);
+        assertEquals("global", config.name);
+
+        GlobalConfigFiles.get().remove(CONFIG_ID);
+        assertNull(ConfigFiles.getByIdOrNull((ItemGroup) child, CONFIG_ID));
+    }
+
+    @Test
+    void batchLookupResolvesEachIdAlongTheHierarchy(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new CustomConfig("a", "global a", "comment", "content"));
+        GlobalConfigFiles.get().save(new CustomConfig("b", "global b", "comment", "content"));
+        Folder folder = j.jenkins.createProject(Folder.class, "folder");
+        FolderConfigFileProperty property = new FolderConfigFileProperty(new ArrayList<>());
+        folder.addProperty(property);
+        property.save(new CustomConfig("b", "folder b", "comment", "content"));
+        property.save(new CustomConfig("c", "folder c", "comment", "content"));
+
+        Map<String, Config> configs = ConfigFiles.getByIds((ItemGroup) folder, List.of("c", "missing", "a", "b"));
+        assertEquals(List.of("c", "a", "b"), List.copyOf(configs.keySet()));
+        assertEquals("folder c", configs.get("c").name);
+        assertEquals("global a", configs.get("a").name);
+        assertEquals("folder b", configs.get("b").name);
+
+        // same answers as the single lookup, also when served from the cache
+        for (String id : List.of("a", "b", "c", "missing")) {
+            Config single = ConfigFiles.getByIdOrNull((ItemGroup) folder, id);
+            assertSame(single, ConfigFiles.getByIds((ItemGroup) folder, List.of(id)).get(id));
+        }
+    }
+
+    @Test
+    void configsInContextFollowStoreModifications(JenkinsRule j) throws Exception {
+        GlobalConfigFiles global = GlobalConfigFiles.get();
+        global.save(new CustomConfig("g1", "Beta", "comment", "content"));
+        Folder folder = j.jenkins.createProject(Folder.class, "folder");
+        Folder child = folder.createProject(Folder.class, "child");
+        FolderConfigFileProperty property = new FolderConfigFileProperty(new ArrayList<>());
+        folder.addProperty(property);
+        property.save(new CustomConfig("f1", "delta", "comment", "content"));
+
+        assertEquals(List.of("Beta", "delta"), names(ConfigFiles.getConfigsInContext(child, CustomConfig.CustomConfigProvider.class)));
+
+        global.save(new CustomConfig("g2", "alpha", "comment", "content"));
+        property.save(new CustomConfig("f2", "Gamma", "comment", "content"));
+        assertEquals(List.of("alpha", "Beta", "delta", "Gamma"), names(ConfigFiles.getConfigsInContext(child, CustomConfig.CustomConfigProvider.class)));
+
+        // renaming moves the config to its new position
+        global.save(new CustomConfig("g1", "epsilon", "comment", "content"));
+        property.remove("f1");
+        assertEquals(List.of("alpha", "epsilon", "Gamma"), names(ConfigFiles.getConfigsInContext(child, CustomConfig.CustomConfigProvider.class)));
+        assertEquals(List.of("alpha", "epsilon"), names(ConfigFiles.getConfigsInContext(j.jenkins, CustomConfig.CustomConfigProvider.class)));
+
+        // the same name in several stores
+        property.save(new CustomConfig("f3", "alpha", "comment", "content"));
+        assertEquals(List.of("alpha", "alpha", "epsilon", "Gamma"), names(ConfigFiles.getConfigsInContext(child, CustomConfig.CustomConfigProvider.class)));
+
+        folder.getProperties().remove(FolderConfigFileProperty.class);
+        folder.save();
+        assertEquals(List.of("alpha", "epsilon"), names(ConfigFiles.getConfigsInContext(child, CustomConfig.CustomConfigProvider.class)));
+    }
+
+    private static List<String> names(List<Config> configs) {
+        List<String> names = new ArrayList<>();
+        for (Config config : configs) {
+            names.add(config.name);
+        }
+        return names;
+    }
+
     @TestExtension
     public static class TestResolver extends ConfigContextResolver {
         private boolean isActive = false;
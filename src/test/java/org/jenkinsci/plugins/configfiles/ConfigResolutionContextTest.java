@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.configfiles;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.reflect.Field;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class ConfigResolutionContextTest {
+
+    @Test
+    void contextCapturedBeforeRefreshIsNotUsedAfterwards(JenkinsRule j) throws Exception {
+        ConfigResolutionContext captured = ConfigResolutionContext.get();
+        assertSame(captured, ConfigResolutionContext.get());
+
+        ConfigResolutionContext.refresh();
+        // a lookup which captured its context before the refresh publishes it afterwards
+        Field current = ConfigResolutionContext.class.getDeclaredField("current");
+        current.setAccessible(true);
+        current.set(null, captured);
+
+        ConfigResolutionContext fresh = ConfigResolutionContext.get();
+        assertNotSame(captured, fresh);
+        assertSame(fresh, ConfigResolutionContext.get());
+    }
+}
@@ -1,8 +1,13 @@
 package org.jenkinsci.plugins.configfiles;
 
+import static io.jenkins.plugins.casc.misc.Util.getUnclassifiedRoot;
+import static io.jenkins.plugins.casc.misc.Util.toYamlString;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.*;
 
+import io.jenkins.plugins.casc.ConfigurationContext;
+import io.jenkins.plugins.casc.ConfiguratorRegistry;
 import io.jenkins.plugins.casc.misc.ConfiguredWithCode;
 import io.jenkins.plugins.casc.misc.JenkinsConfiguredWithCodeRule;
 import io.jenkins.plugins.casc.misc.junit.jupiter.WithJenkinsConfiguredWithCode;
@@ -41,6 +46,29 @@ class GlobalConfigFilesConfigAsCodeTest {
                 "someCredentials", maven.getServerCredentialMappings().get(0).getCredentialsId());
     }
 
+    @Test
+    @ConfiguredWithCode("GlobalConfigFilesConfigAsCodeTest.yaml")
+    void should_export_content_with_lazy_content(JenkinsConfiguredWithCodeRule j) throws Exception {
+        final GlobalConfigFiles cfg = GlobalConfigFiles.get();
+        cfg.save();
+        GlobalConfigFiles.LAZY_CONTENT = true;
+        try {
+            cfg.load();
+            assertNull(cfg.getConfigMetadata(null).iterator().next().content);
+
+            ConfigurationContext context = new ConfigurationContext(ConfiguratorRegistry.get());
+            String exported = toYamlString(getUnclassifiedRoot(context).get("globalConfigFiles"));
+            assertThat(exported, containsString("dummy content 1"));
+            assertThat(exported, containsString("myPropertyKey=myPropertyVal"));
+            for (Config config : ConfigFiles.getConfigsInContext(j.jenkins, null)) {
+                assertNotNull(config.content, config.id);
+            }
+        } finally {
+            GlobalConfigFiles.LAZY_CONTENT = false;
+            cfg.load();
+        }
+    }
+
     /** @see https://issues.jenkins.io/browse/JENKINS-60498 */
     @Test
     void ensure_configs_treeset(JenkinsConfiguredWithCodeRule j) {
@@ -1,12 +1,22 @@
 package org.jenkinsci.plugins.configfiles;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
 import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.*;
 
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.io.File;
+import java.nio.file.Files;
 import java.util.Collection;
 import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import org.jvnet.hudson.test.recipes.LocalData;
 
@@ -29,5 +39,131 @@ class GlobalConfigFilesTest {
                 j.getInstance().getExtensionList(GlobalConfigFiles.class).get(GlobalConfigFiles.class);
         Collection<Config> configs = store.getConfigs();
         assertThat(configs, hasSize(2));
+
+        // copied to one file per config, the single file is kept for older versions
+        File root = j.jenkins.getRootDir();
+        assertTrue(new File(root, GlobalConfigFiles.class.getName() + ".xml").exists());
+        assertFalse(new File(root, GlobalConfigFiles.class.getName() + ".xml.migrated").exists());
+        assertThat(new File(root, GlobalConfigFiles.class.getName()).list(), arrayWithSize(3));
+    }
+
+    @Test
+    void legacyFileIsWrittenForDowngrades(JenkinsRule j) throws Exception {
+        GlobalConfigFiles store = GlobalConfigFiles.get();
+        store.save(new CustomConfig("one", "name", "comment", "content one"));
+        store.save(new CustomConfig("two", "name", "comment", "content two"));
+        File legacy = new File(j.jenkins.getRootDir(), GlobalConfigFiles.class.getName() + ".xml");
+        assertFalse(legacy.exists());
+
+        // only written by a full save
+        store.save();
+        store.remove("two");
+        String xml = Files.readString(legacy.toPath());
+        assertTrue(xml.contains("content one"));
+        assertTrue(xml.contains("content two"));
+        assertFalse(GlobalConfigFiles.isWrittenByOlderVersion(legacy));
+
+        // a file written by this version is ignored
+        store.load();
+        assertThat(store.getConfigs(), hasSize(1));
+
+        // an older version modified the configs after a downgrade, dropping the storage version
+        Files.writeString(legacy.toPath(), xml.replace("content one", "changed by older version")
+                .replaceAll("\\s*<storageVersion>\\d+</storageVersion>", ""));
+        assertTrue(GlobalConfigFiles.isWrittenByOlderVersion(legacy));
+        store.load();
+        assertThat(store.getConfigs(), hasSize(2));
+        assertEquals("changed by older version", store.getById("one").content);
+
+        // migrated again, the directory is used from now on
+        assertFalse(GlobalConfigFiles.isWrittenByOlderVersion(legacy));
+        store.remove("two");
+        store.load();
+        assertThat(store.getConfigs(), hasSize(1));
+        assertEquals("changed by older version", store.getById("one").content);
+    }
+
+    @Test
+    void savesOneFilePerConfig(JenkinsRule j) throws Exception {
+        GlobalConfigFiles store = GlobalConfigFiles.get();
+        store.save(new CustomConfig("one", "name", "comment", "content"));
+        store.save(new CustomConfig("two", "name", "comment", "content"));
+        store.save(new CustomConfig("three", "name", "comment", "content"));
+        File dir = new File(j.jenkins.getRootDir(), GlobalConfigFiles.class.getName());
+        assertThat(dir.list(), arrayWithSize(4));
+
+        store.remove("three");
+        assertThat(dir.list(), arrayWithSize(3));
+
+        // saving an existing config only writes its own file
+        File manifest = new File(dir, "manifest.xml");
+        assertTrue(manifest.setLastModified(0));
+        store.save(new CustomConfig("two", "name", "changed comment", "content"));
+        assertEquals(0, manifest.lastModified());
+        assertThat(dir.list(), arrayWithSize(3));
+        assertFalse(new File(j.jenkins.getRootDir(), GlobalConfigFiles.class.getName() + ".xml").exists());
+        assertEquals(ExtensionList.lookupSingleton(SavedFiles.class).last, store.getDirectory().getFile("two").getFile());
+
+        // a damaged entry does not affect the other ones
+        File[] files = dir.listFiles((d, name) -> !name.equals("manifest.xml"));
+        Files.writeString(files[0].toPath(), "<broken");
+        store.load();
+        assertThat(store.getConfigs(), hasSize(1));
+
+        store.save(new CustomConfig("two", "new name", "comment", "content"));
+        store.load();
+        assertEquals("new name", store.getById("two").name);
+    }
+
+    @Test
+    void lazyContentKeepsOnlyMetadataInMemory(JenkinsRule j) throws Exception {
+        GlobalConfigFiles store = GlobalConfigFiles.get();
+        store.save(new CustomConfig("one", "first", "comment", "content one"));
+        GlobalConfigFiles.LAZY_CONTENT = true;
+        try {
+            store.load();
+            Config listed = store.getConfigMetadata(null).iterator().next();
+            assertEquals("first", listed.name);
+            assertNull(listed.content);
+            // the public API always returns complete configs
+            assertEquals("content one", store.getConfigs().iterator().next().content);
+            assertEquals("content one", store.getById("one").content);
+            assertEquals("content one", ConfigFiles.getByIdOrNull(j.jenkins, "one").content);
+
+            store.save(new CustomConfig("one", "first", "comment", "changed"));
+            store.save(new CustomConfig("two", "second", "comment", "content two"));
+            assertNull(store.getConfigMetadata(CustomConfig.CustomConfigProvider.class).iterator().next().content);
+            assertEquals("changed", store.getConfigs(CustomConfig.CustomConfigProvider.class).iterator().next().content);
+            assertEquals("changed", ConfigFiles.getByIdOrNull(j.jenkins, "one").content);
+            assertEquals("changed", ConfigFiles.getConfigsInContext(j.jenkins, CustomConfig.CustomConfigProvider.class).get(0).content);
+            // listing the configs for the UI does not read any content
+            Config option = ConfigFiles.getConfigMetadataInContext(j.jenkins, CustomConfig.CustomConfigProvider.class).get(0);
+            assertEquals("first", option.name);
+            assertNull(option.content);
+
+            // everything still there after a full save and reload
+            store.save();
+            store.load();
+            assertThat(store.getConfigs(), hasSize(2));
+            assertEquals("changed", store.getById("one").content);
+            assertEquals("content two", store.getById("two").content);
+        } finally {
+            GlobalConfigFiles.LAZY_CONTENT = false;
+            store.load();
+        }
+        assertEquals("changed", store.getConfigs(CustomConfig.CustomConfigProvider.class).iterator().next().content);
+    }
+
+    @TestExtension("savesOneFilePerConfig")
+    public static class SavedFiles extends SaveableListener {
+
+        File last;
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof GlobalConfigFiles) {
+                last = file.getFile();
+            }
+        }
     }
 }
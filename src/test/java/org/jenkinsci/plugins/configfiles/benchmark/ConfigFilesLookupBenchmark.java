@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.configfiles.benchmark;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.model.ItemGroup;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.configfiles.ConfigFiles;
+import org.jenkinsci.plugins.configfiles.ConfigLookupCache;
+import org.jenkinsci.plugins.configfiles.ConfigResolutionContext;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link ConfigFiles#getByIdOrNull(ItemGroup, String)} for a global config from a folder 10 levels deep.
+ * <p>
+ * The lookup cache is cleared before each uncached lookup, so the folder tree is walked every time. Refreshing the
+ * {@link ConfigResolutionContext} before a lookup adds the cost of asking the plugin manager and the resolver extension
+ * list, which lookups paid on every level of the walk before the context was reused.
+ */
+@JmhBenchmark
+public class ConfigFilesLookupBenchmark {
+
+    private static final int DEPTH = 10;
+
+    private static final String CONFIG_ID = "config-50";
+
+    public static class FolderTreeState extends JmhBenchmarkState {
+
+        Folder deepest;
+
+        @Override
+        public void setup() throws Exception {
+            Jenkins jenkins = getJenkins();
+            for (int i = 0; i < 100; i++) {
+                GlobalConfigFiles.get().save(new CustomConfig("config-" + i, "config " + i, "", "content " + i));
+            }
+            Folder folder = jenkins.createProject(Folder.class, "level0");
+            for (int i = 1; i < DEPTH; i++) {
+                folder = folder.createProject(Folder.class, "level" + i);
+            }
+            deepest = folder;
+        }
+    }
+
+    @Benchmark
+    public void getByIdOrNullCached(FolderTreeState state, Blackhole blackhole) {
+        blackhole.consume(ConfigFiles.getByIdOrNull((ItemGroup) state.deepest, CONFIG_ID));
+    }
+
+    @Benchmark
+    public void getByIdOrNullUncached(FolderTreeState state, Blackhole blackhole) {
+        ConfigLookupCache.invalidateAll();
+        blackhole.consume(ConfigFiles.getByIdOrNull((ItemGroup) state.deepest, CONFIG_ID));
+    }
+
+    @Benchmark
+    public void getByIdOrNullUncachedWithNewContext(FolderTreeState state, Blackhole blackhole) {
+        ConfigLookupCache.invalidateAll();
+        ConfigResolutionContext.refresh();
+        blackhole.consume(ConfigFiles.getByIdOrNull((ItemGroup) state.deepest, CONFIG_ID));
+    }
+
+    @Benchmark
+    public void configsInContext(FolderTreeState state, Blackhole blackhole) {
+        blackhole.consume(ConfigFiles.getConfigsInContext(state.deepest, null));
+    }
+}
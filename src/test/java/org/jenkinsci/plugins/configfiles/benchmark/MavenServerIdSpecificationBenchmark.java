@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.configfiles.benchmark;
+
+import com.cloudbees.plugins.credentials.domains.DomainSpecification;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOCase;
+import org.jenkinsci.plugins.configfiles.maven.security.MavenServerIdRequirement;
+import org.jenkinsci.plugins.configfiles.maven.security.MavenServerIdSpecification;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures testing serverIds against a {@link MavenServerIdSpecification} with hundreds of includes and excludes,
+ * comparing the compiled specification with splitting and wildcard matching the patterns on every test.
+ */
+@JmhBenchmark
+public class MavenServerIdSpecificationBenchmark {
+
+    private static final int PATTERNS = 300;
+
+    @State(Scope.Benchmark)
+    public static class SpecificationState {
+
+        String includes;
+
+        String excludes;
+
+        MavenServerIdSpecification specification;
+
+        MavenServerIdRequirement[] requirements;
+
+        @Setup
+        public void setup() {
+            StringBuilder includes = new StringBuilder();
+            StringBuilder excludes = new StringBuilder();
+            for (int i = 0; i < PATTERNS; i++) {
+                // a third exact serverIds, a third prefixes and a third suffixes with single character wildcards
+                switch (i % 3) {
+                    case 0:
+                        includes.append("repo-").append(i).append(',');
+                        break;
+                    case 1:
+                        includes.append("mirror-").append(i).append("-*").append(',');
+                        break;
+                    default:
+                        includes.append("*-snapshots-").append(i).append("-?").append(' ');
+                        break;
+                }
+                if (i % 10 == 0) {
+                    excludes.append("mirror-").append(i + 1).append("-internal*").append('\n');
+                }
+            }
+            this.includes = includes.toString();
+            this.excludes = excludes.toString();
+            specification = new MavenServerIdSpecification(this.includes, this.excludes);
+            requirements = new MavenServerIdRequirement[] {
+                    new MavenServerIdRequirement("REPO-150"),
+                    new MavenServerIdRequirement("mirror-199-central"),
+                    new MavenServerIdRequirement("mirror-1-internal-1"),
+                    new MavenServerIdRequirement("releases-snapshots-299-a"),
+                    new MavenServerIdRequirement("unknown"),
+            };
+        }
+    }
+
+    @Benchmark
+    public void compiled(SpecificationState state, Blackhole blackhole) {
+        for (MavenServerIdRequirement requirement : state.requirements) {
+            blackhole.consume(state.specification.test(requirement));
+        }
+    }
+
+    @Benchmark
+    public void splitAndWildcardMatch(SpecificationState state, Blackhole blackhole) {
+        for (MavenServerIdRequirement requirement : state.requirements) {
+            blackhole.consume(testWithoutCompiling(state.includes, state.excludes, requirement.getServerId()));
+        }
+    }
+
+    private static DomainSpecification.Result testWithoutCompiling(String includes, String excludes, String serverId) {
+        boolean isInclude = false;
+        for (String include : includes.split("[,\\n ]")) {
+            if (!include.isBlank() && FilenameUtils.wildcardMatch(serverId, include.trim(), IOCase.INSENSITIVE)) {
+                isInclude = true;
+                break;
+            }
+        }
+        if (!isInclude) {
+            return DomainSpecification.Result.NEGATIVE;
+        }
+        for (String exclude : excludes.split("[,\\n ]")) {
+            if (!exclude.isBlank() && FilenameUtils.wildcardMatch(serverId, exclude.trim(), IOCase.INSENSITIVE)) {
+                return DomainSpecification.Result.NEGATIVE;
+            }
+        }
+        return DomainSpecification.Result.PARTIAL;
+    }
+}
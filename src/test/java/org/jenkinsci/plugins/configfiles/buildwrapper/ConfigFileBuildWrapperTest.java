@@ -2,33 +2,54 @@ package org.jenkinsci.plugins.configfiles.buildwrapper;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.FilePath;
 import hudson.Functions;
 import hudson.Launcher;
 import hudson.maven.MavenModuleSet;
 import hudson.model.*;
 import hudson.model.Cause.UserIdCause;
 import hudson.tasks.Builder;
+import hudson.util.Secret;
 import jakarta.inject.Inject;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import jenkins.security.MasterToSlaveCallable;
 import org.apache.commons.io.IOUtils;
 import org.htmlunit.html.DomElement;
 import org.htmlunit.html.DomNodeList;
 import org.htmlunit.html.HtmlOption;
 import org.htmlunit.html.HtmlPage;
+import org.jenkinsci.lib.configprovider.AbstractConfigProviderImpl;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.lib.configprovider.model.ContentType;
 import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.lib.configprovider.model.ConfigFileManager;
 import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
 import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
 import org.jenkinsci.plugins.configfiles.custom.CustomConfig.CustomConfigProvider;
+import org.jenkinsci.plugins.configfiles.custom.security.CustomizedCredentialMapping;
 import org.jenkinsci.plugins.configfiles.xml.XmlConfig.XmlConfigProvider;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.ExtractResourceSCM;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.JenkinsRule.WebClient;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
 import org.jvnet.hudson.test.ToolInstallations;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
@@ -109,6 +130,288 @@ class ConfigFileBuildWrapperTest {
                 Result.SUCCESS, p.scheduleBuild2(0, new UserIdCause()).get());
     }
 
+    @Test
+    void allFilesOfABlockArePlacedInOrder(JenkinsRule j) throws Exception {
+        provisionBlock(j);
+    }
+
+    @Test
+    void allFilesOfABlockArePlacedInOrderWhenRenderedConcurrently(JenkinsRule j) throws Exception {
+        ConfigFileManager.PARALLELISM = 4;
+        try {
+            provisionBlock(j);
+        } finally {
+            ConfigFileManager.PARALLELISM = 1;
+        }
+    }
+
+    @Test
+    void largeContentIsPlacedOnAgentFromItsCache(JenkinsRule j) throws Exception {
+        String content = "x".repeat(64 * 1024);
+        GlobalConfigFiles.get().save(new CustomConfig("large", "large file", "", content));
+
+        final FreeStyleProject p = j.createFreeStyleProject("agent");
+        p.setAssignedNode(j.createOnlineSlave());
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(
+                new ManagedFile("large", "large.txt", null),
+                new ManagedFile("large", "copy.txt", null))));
+        p.getBuildersList().add(new VerifyFileContentBuilder("large.txt", content, true));
+        p.getBuildersList().add(new VerifyFileContentBuilder("copy.txt", content, true));
+
+        // first transferred, then from the cache of the agent
+        j.buildAndAssertSuccess(p);
+        j.buildAndAssertSuccess(p);
+
+        String changed = "y".repeat(64 * 1024);
+        GlobalConfigFiles.get().save(new CustomConfig("large", "large file", "", changed));
+        p.getBuildersList().clear();
+        p.getBuildersList().add(new VerifyFileContentBuilder("large.txt", changed, true));
+        j.buildAndAssertSuccess(p);
+    }
+
+    @Test
+    void contentWithCredentialsIsNotCachedOnAgent(JenkinsRule j) throws Exception {
+        SystemCredentialsProvider.getInstance()
+                .getCredentials()
+                .add(new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "desc", Secret.fromString("s3cr3t")));
+        String plain = "x".repeat(64 * 1024);
+        String template = "y".repeat(64 * 1024) + "${thecred}";
+        GlobalConfigFiles.get().save(new CustomConfig("plain", "plain file", "", plain));
+        GlobalConfigFiles.get().save(new CustomConfig("secret", "secret file", "", template,
+                List.of(new CustomizedCredentialMapping("thecred", "creds"))));
+
+        Slave agent = j.createOnlineSlave();
+        final FreeStyleProject p = j.createFreeStyleProject("agent");
+        p.setAssignedNode(agent);
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(
+                new ManagedFile("plain", "plain.txt", null),
+                new ManagedFile("secret", "secret.txt", null))));
+        p.getBuildersList().add(new VerifyFileContentBuilder("plain.txt", plain, true));
+        p.getBuildersList().add(new VerifyFileContentBuilder("secret.txt", "y".repeat(64 * 1024) + "s3cr3t", true));
+        j.buildAndAssertSuccess(p);
+
+        assertEquals(List.of(plain), agent.getChannel().call(new CachedContent()));
+    }
+
+    @Test
+    void contentWithCredentialsIsNotCachedAsTemplate(JenkinsRule j) throws Exception {
+        SystemCredentialsProvider.getInstance()
+                .getCredentials()
+                .add(new StringCredentialsImpl(CredentialsScope.GLOBAL, "creds", "desc", Secret.fromString("s3cr3t")));
+        GlobalConfigFiles.get().save(new CustomConfig("plain-template", "plain file", "", "plain for $JOB_NAME"));
+        GlobalConfigFiles.get().save(new CustomConfig("secret-template", "secret file", "", "${thecred} for $JOB_NAME",
+                List.of(new CustomizedCredentialMapping("thecred", "creds"))));
+
+        final FreeStyleProject p = j.createFreeStyleProject("templates");
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(
+                new ManagedFile("plain-template", "plain.txt", null, true),
+                new ManagedFile("secret-template", "secret.txt", null, true))));
+        p.getBuildersList().add(new VerifyFileContentBuilder("plain.txt", "plain for templates", true));
+        p.getBuildersList().add(new VerifyFileContentBuilder("secret.txt", "s3cr3t for templates", true));
+        j.buildAndAssertSuccess(p);
+
+        Class<?> templates = Class.forName("org.jenkinsci.lib.configprovider.model.TokenTemplate");
+        Field cache = templates.getDeclaredField("TEMPLATES");
+        cache.setAccessible(true);
+        Field source = templates.getDeclaredField("source");
+        source.setAccessible(true);
+        Map<?, ?> cached = (Map<?, ?>) cache.get(null);
+        synchronized (cached) {
+            assertEquals("plain for $JOB_NAME", source.get(cached.get("plain-template")));
+            assertFalse(cached.containsKey("secret-template"));
+        }
+    }
+
+    /**
+     * The content in the {@link org.jenkinsci.lib.configprovider.model.AgentContentCache} of an agent.
+     */
+    private static final class CachedContent extends MasterToSlaveCallable<List<String>, Exception> {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<String> call() throws Exception {
+            Class<?> cache = Class.forName("org.jenkinsci.lib.configprovider.model.AgentContentCache");
+            Field entries = cache.getDeclaredField("ENTRIES");
+            entries.setAccessible(true);
+            List<String> contents = new ArrayList<>();
+            synchronized (cache) {
+                for (byte[] content : ((Map<String, byte[]>) entries.get(null)).values()) {
+                    contents.add(new String(content, StandardCharsets.UTF_8));
+                }
+            }
+            return contents;
+        }
+    }
+
+    @Test
+    void hugeContentIsStreamedToAgent(JenkinsRule j) throws Exception {
+        // multi-byte characters across the buffers of the encoder
+        String content = "\u00e4\u20ac\uD83D\uDE00 ".repeat(300 * 1024);
+        GlobalConfigFiles.get().save(new CustomConfig("huge", "huge file", "", content));
+
+        final FreeStyleProject p = j.createFreeStyleProject("agent");
+        p.setAssignedNode(j.createOnlineSlave());
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(new ManagedFile("huge", "huge.txt", null))));
+        p.getBuildersList().add(new VerifyFileContentBuilder("huge.txt", content, true));
+        j.buildAndAssertSuccess(p);
+    }
+
+    @Test
+    void unchangedFileIsLeftUntouched(JenkinsRule j) throws Exception {
+        Config config = new CustomConfig("same", "same file", "", "same content");
+        GlobalConfigFiles.get().save(config);
+
+        final FreeStyleProject p = j.createFreeStyleProject("same");
+        ManagedFile managedFile = new ManagedFile("same", "same.txt", null);
+        managedFile.setSkipIfUnchanged(true);
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(managedFile)));
+
+        j.buildAndAssertSuccess(p);
+        FilePath target = p.getSomeWorkspace().child("same.txt");
+        target.touch(1_000_000_000_000L);
+        target.chmod(0666);
+
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+        j.assertLogContains(Messages.console_output_unchanged(config.name, target.toURI()), build);
+        assertEquals(1_000_000_000_000L, target.lastModified());
+        if (!Functions.isWindows()) {
+            assertEquals(0640, target.mode());
+        }
+
+        GlobalConfigFiles.get().save(new CustomConfig("same", "same file", "", "other content"));
+        build = j.buildAndAssertSuccess(p);
+        j.assertLogContains(Messages.console_output(config.name, target.toURI()), build);
+        assertEquals("other content", target.readToString());
+    }
+
+    @Test
+    void tearDownReportsTheTemporaryFilesItCouldNotDelete(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new CustomConfig("temp", "temp file", "", "content"));
+
+        final FreeStyleProject p = j.createFreeStyleProject("temp");
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(
+                new ManagedFile("temp", null, "DELETED"),
+                new ManagedFile("temp", null, "MISSING"),
+                new ManagedFile("temp", null, "UNDELETABLE"))));
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                EnvVars env = build.getEnvironment(listener);
+                new FilePath(new File(env.get("MISSING"))).delete();
+                // a directory which is not empty can not be deleted as a file
+                FilePath undeletable = new FilePath(new File(env.get("UNDELETABLE")));
+                undeletable.delete();
+                undeletable.child("child").write("child", "UTF-8");
+                return true;
+            }
+        });
+
+        FreeStyleBuild build = j.buildAndAssertStatus(Result.FAILURE, p);
+        j.assertLogContains("Deleted 1 of 3 temporary files, 1 could not be deleted", build);
+        j.assertLogContains("Deleted 1 of 3 temporary files, failed to delete", build);
+    }
+
+    @Test
+    void contentWithoutTokensIsNotExpanded(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new CustomConfig("plain", "plain file", "", "nothing to expand"));
+        GlobalConfigFiles.get().save(new CustomConfig("tokens", "tokens file", "", "job $JOB_NAME"));
+
+        final FreeStyleProject p = j.createFreeStyleProject("tokens");
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(
+                new ManagedFile("plain", "plain.txt", null, true),
+                new ManagedFile("tokens", "tokens.txt", null, true))));
+        p.getBuildersList().add(new VerifyFileContentBuilder("plain.txt", "nothing to expand", true));
+        p.getBuildersList().add(new VerifyFileContentBuilder("tokens.txt", "job tokens", true));
+
+        long expansions = ConfigFileManager.getExpansions();
+        long skipped = ConfigFileManager.getSkippedExpansions();
+        j.buildAndAssertSuccess(p);
+        assertEquals(expansions + 1, ConfigFileManager.getExpansions());
+        assertEquals(skipped + 1, ConfigFileManager.getSkippedExpansions());
+    }
+
+    @Test
+    void temporaryDirectoryExistsWhenContentIsSupplied(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new WorkDirConfig("key", "key file", "", "key at "));
+
+        final FreeStyleProject p = j.createFreeStyleProject("key");
+        p.setAssignedNode(j.createOnlineSlave());
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(new ManagedFile("key", "key.txt", null))));
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                String content = build.getWorkspace().child("key.txt").readToString();
+                assertTrue(content.startsWith("key at "), content);
+                assertTrue(new FilePath(build.getWorkspace().getChannel(), content.substring("key at ".length())).exists(), content);
+                return true;
+            }
+        });
+        j.buildAndAssertSuccess(p);
+    }
+
+    /**
+     * A config whose provider creates a file in the temporary directory while supplying the content, like providers
+     * writing private keys do.
+     */
+    public static class WorkDirConfig extends Config {
+        private static final long serialVersionUID = 1L;
+
+        public WorkDirConfig(String id, String name, String comment, String content) {
+            super(id, name, comment, content, WorkDirProvider.class.getName());
+        }
+
+        @TestExtension("temporaryDirectoryExistsWhenContentIsSupplied")
+        public static class WorkDirProvider extends AbstractConfigProviderImpl {
+
+            @Override
+            public ContentType getContentType() {
+                return ContentType.DefinedType.SHELL;
+            }
+
+            @NonNull
+            @Override
+            public Config newConfig(@NonNull String id) {
+                return new WorkDirConfig(id, "key file", "", "key at ");
+            }
+
+            @Override
+            public String supplyContent(@NonNull Config configFile, Run<?, ?> build, FilePath workDir, TaskListener listener, @NonNull List<String> tempFiles) throws IOException {
+                try {
+                    FilePath key = workDir.createTempFile("key", ".pem");
+                    tempFiles.add(key.getRemote());
+                    return super.supplyContent(configFile, build, workDir, listener, tempFiles) + key.getRemote();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    private static void provisionBlock(JenkinsRule j) throws Exception {
+        Config first = new CustomConfig("first", "first file", "", "first content");
+        Config second = new CustomConfig("second", "second file", "", "second content");
+        Config third = new CustomConfig("third", "third file", "", "third content");
+        GlobalConfigFiles.get().save(first);
+        GlobalConfigFiles.get().save(second);
+        GlobalConfigFiles.get().save(third);
+
+        final FreeStyleProject p = j.createFreeStyleProject("block");
+        ConfigFileBuildWrapper bw = new ConfigFileBuildWrapper(List.of(
+                new ManagedFile(first.id, "first.txt", null),
+                new ManagedFile(second.id, "conf/", null),
+                new ManagedFile(third.id, null, "THIRD_FILE")));
+        p.getBuildWrappersList().add(bw);
+        p.getBuildersList().add(new VerifyFileContentBuilder("first.txt", "first content", true));
+        p.getBuildersList().add(new VerifyFileContentBuilder("conf/" + second.name.replace(" ", "_"), "second content", true));
+
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+        String log = JenkinsRule.getLog(build);
+        int firstLine = log.indexOf(Messages.console_output(first.name, ""));
+        int secondLine = log.indexOf(Messages.console_output(second.name, ""));
+        int thirdLine = log.indexOf(Messages.console_output(third.name, ""));
+        assertTrue(firstLine >= 0 && firstLine < secondLine && secondLine < thirdLine, log);
+    }
+
     private static final class VerifyEnvVariableBuilder extends Builder {
         private final String var, expectedValue;
 
@@ -134,14 +437,27 @@ class ConfigFileBuildWrapperTest {
         private final String filePath;
         private final String expectedContent;
 
+        private final boolean inWorkspace;
+
         public VerifyFileContentBuilder(String filePath, String expectedContent) {
+            this(filePath, expectedContent, false);
+        }
+
+        public VerifyFileContentBuilder(String filePath, String expectedContent, boolean inWorkspace) {
             this.filePath = filePath;
             this.expectedContent = expectedContent;
+            this.inWorkspace = inWorkspace;
         }
 
         @Override
         public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
                 throws InterruptedException, IOException {
+            if (inWorkspace) {
+                try (InputStream in = build.getWorkspace().child(filePath).read()) {
+                    assertEquals(expectedContent, IOUtils.toString(in, StandardCharsets.UTF_8), "file content not correct");
+                }
+                return true;
+            }
             final String fileContent = IOUtils.toString(new FileReader(filePath));
             assertEquals(expectedContent, fileContent, "file content not correct");
             return true;
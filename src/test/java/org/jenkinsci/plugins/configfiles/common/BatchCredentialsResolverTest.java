@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Fingerprint;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.User;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.Jenkins;
+import jenkins.security.QueueItemAuthenticatorConfiguration;
+import org.jenkinsci.plugins.configfiles.maven.security.MavenServerIdRequirement;
+import org.jenkinsci.plugins.configfiles.maven.security.MavenServerIdSpecification;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+import org.jvnet.hudson.test.MockQueueItemAuthenticator;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class BatchCredentialsResolverTest {
+
+    @Test
+    void resolvesLikeFindCredentialById(JenkinsRule j) throws Exception {
+        CredentialsStore store = SystemCredentialsProvider.getInstance().getStore();
+        store.addCredentials(Domain.global(),
+                new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "global", null, "global", "pwd"));
+        Domain repositories = new Domain("repositories", null,
+                Collections.singletonList(new MavenServerIdSpecification("repo-*", "repo-excluded")));
+        store.addDomain(repositories,
+                new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "repo", null, "repo", "pwd"),
+                new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "duplicate", null, "scoped", "pwd"));
+        store.addCredentials(Domain.global(),
+                new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "duplicate", null, "global", "pwd"));
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        BatchCredentialsResolver<StandardUsernameCredentials> resolver =
+                new BatchCredentialsResolver<>(StandardUsernameCredentials.class, build);
+        for (String serverId : new String[] {null, "repo-1", "repo-excluded", "other"}) {
+            List<DomainRequirement> requirements = serverId == null
+                    ? Collections.emptyList()
+                    : Collections.singletonList(new MavenServerIdRequirement(serverId));
+            for (String id : new String[] {"global", "repo", "duplicate", "unknown"}) {
+                StandardUsernameCredentials expected =
+                        CredentialsProvider.findCredentialById(id, StandardUsernameCredentials.class, build, requirements);
+                StandardUsernameCredentials actual = resolver.find(id, requirements, serverId);
+                if (expected == null) {
+                    assertNull(actual, id + " for " + serverId);
+                } else {
+                    assertNotNull(actual, id + " for " + serverId);
+                    assertEquals(expected.getUsername(), actual.getUsername(), id + " for " + serverId);
+                }
+            }
+        }
+    }
+
+    @Test
+    void resolvesLikeFindCredentialByIdForBuildsRunningAsAUser(JenkinsRule j) throws Exception {
+        SystemCredentialsProvider.getInstance().getStore().addCredentials(Domain.global(),
+                new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "global", null, "global", "pwd"));
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy().grant(Jenkins.READ, Item.READ, Item.BUILD).everywhere().to("alice"));
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        QueueItemAuthenticatorConfiguration.get().getAuthenticators()
+                .add(new MockQueueItemAuthenticator().authenticate(p.getFullName(), User.getById("alice", true).impersonate2()));
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        BatchCredentialsResolver<StandardUsernameCredentials> resolver =
+                new BatchCredentialsResolver<>(StandardUsernameCredentials.class, build);
+        for (String id : new String[] {"global", "unknown"}) {
+            StandardUsernameCredentials expected =
+                    CredentialsProvider.findCredentialById(id, StandardUsernameCredentials.class, build, Collections.emptyList());
+            StandardUsernameCredentials actual = resolver.find(id, Collections.emptyList(), null);
+            assertEquals(expected == null ? null : expected.getUsername(), actual == null ? null : actual.getUsername(), id);
+        }
+    }
+
+    @Test
+    void tracksTheUsageOfTheCredentials(JenkinsRule j) throws Exception {
+        UsernamePasswordCredentialsImpl credentials =
+                new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "global", null, "global", "pwd");
+        SystemCredentialsProvider.getInstance().getStore().addCredentials(Domain.global(), credentials);
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                return new BatchCredentialsResolver<>(StandardUsernameCredentials.class, build)
+                        .find("global", Collections.emptyList(), null) != null;
+            }
+        });
+        j.buildAndAssertSuccess(p);
+
+        Fingerprint fingerprint = CredentialsProvider.getFingerprintOf(credentials);
+        assertNotNull(fingerprint);
+        assertTrue(fingerprint.getJobs().contains(p.getFullName()));
+    }
+
+    @Test
+    void findsAllConcurrentlyInOrder(JenkinsRule j) throws Exception {
+        CredentialsStore store = SystemCredentialsProvider.getInstance().getStore();
+        for (int i = 0; i < 10; i++) {
+            store.addCredentials(Domain.global(),
+                    new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "id-" + i, null, "user-" + i, "pwd"));
+        }
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        List<BatchCredentialsResolver.Request> requests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            requests.add(new BatchCredentialsResolver.Request("id-" + i, Collections.emptyList(), "key-" + i));
+        }
+        int parallelism = BatchCredentialsResolver.PARALLELISM;
+        BatchCredentialsResolver.PARALLELISM = 4;
+        try {
+            List<StandardUsernameCredentials> found =
+                    new BatchCredentialsResolver<>(StandardUsernameCredentials.class, build).findAll(requests);
+            assertEquals(requests.size(), found.size());
+            for (int i = 0; i < found.size(); i++) {
+                if (i < 10) {
+                    assertNotNull(found.get(i), "id-" + i);
+                    assertEquals("user-" + i, found.get(i).getUsername());
+                } else {
+                    assertNull(found.get(i), "id-" + i);
+                }
+            }
+        } finally {
+            BatchCredentialsResolver.PARALLELISM = parallelism;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BoundedExecutorsTest {
+
+    @Test
+    void executorIsResizedWhenTheParallelismChanges() throws Exception {
+        ExecutorService executor = BoundedExecutors.get("BoundedExecutorsTest.resize", 1);
+        assertEquals(1, maxRunning(executor, 4));
+
+        assertSame(executor, BoundedExecutors.get("BoundedExecutorsTest.resize", 3));
+        assertEquals(3, maxRunning(executor, 6));
+
+        assertSame(executor, BoundedExecutors.get("BoundedExecutorsTest.resize", 2));
+        assertEquals(2, maxRunning(executor, 6));
+    }
+
+    /**
+     * Submits tasks which wait for each other as long as they can and reports how many of them ran at the same time.
+     */
+    private static int maxRunning(ExecutorService executor, int tasks) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(tasks);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            futures.add(executor.submit(() -> {
+                max.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                started.await(200, TimeUnit.MILLISECONDS);
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        assertTrue(max.get() > 0);
+        return max.get();
+    }
+}
@@ -1,7 +1,11 @@
 package org.jenkinsci.plugins.configfiles.common;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import hudson.EnvVars;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
@@ -9,7 +13,10 @@ import hudson.model.Cause.UserIdCause;
 import hudson.model.FreeStyleProject;
 import hudson.model.Result;
 import jakarta.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
 import org.jenkinsci.plugins.configfiles.builder.ConfigFileBuildStep;
@@ -47,6 +54,37 @@ class CleanTempFilesRunListenerTest {
                 0, p.getBuildByNumber(1).getActions(CleanTempFilesAction.class).size());
     }
 
+    @Test
+    void tempFilesAreDeletedAfterTheBuild(JenkinsRule j) throws Exception {
+        j.jenkins.getInjector().injectMembers(this);
+
+        final FreeStyleProject p = j.createFreeStyleProject("free");
+        createCustomFile(j, "first", customConfigProvider, "first");
+        createCustomFile(j, "second", customConfigProvider, "second");
+        p.getBuildersList().add(new ConfigFileBuildStep(Arrays.asList(
+                new ManagedFile("first", null, "FIRST"), new ManagedFile("second", null, "SECOND"))));
+
+        final List<FilePath> tempFiles = new ArrayList<>();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                EnvVars env = build.getEnvironment(listener);
+                tempFiles.add(new FilePath(launcher.getChannel(), env.get("FIRST")));
+                tempFiles.add(new FilePath(launcher.getChannel(), env.get("SECOND")));
+                for (FilePath tempFile : tempFiles) {
+                    assertTrue(tempFile.exists());
+                }
+                return true;
+            }
+        });
+
+        j.buildAndAssertSuccess(p);
+        assertEquals(2, tempFiles.size());
+        for (FilePath tempFile : tempFiles) {
+            assertFalse(tempFile.exists());
+        }
+    }
+
     private Config createCustomFile(JenkinsRule j, String configId, CustomConfigProvider provider, String content) {
         Config c1 = provider.newConfig(configId);
         c1 = new CustomConfig(c1.id, c1.name, c1.comment, content);
@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.FilePath;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DeleteFilesTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void countsDeletedAndFailedFiles() throws Exception {
+        File file = new File(dir, "file.txt");
+        Files.writeString(file.toPath(), "content");
+        // a directory which is not empty can not be deleted as a file, whoever runs the test
+        File undeletable = new File(dir, "undeletable");
+        assertTrue(new File(undeletable, "child").mkdirs());
+
+        DeleteFiles.Result result = DeleteFiles.delete(new FilePath(dir), List.of("file.txt", "missing.txt", "undeletable"));
+        assertEquals(1, result.getDeleted());
+        assertEquals(Set.of("undeletable"), result.getFailures().keySet());
+        assertThat(result.describeFailures(), startsWith("undeletable - "));
+        assertFalse(file.exists());
+        assertTrue(undeletable.exists());
+    }
+
+    @Test
+    void ignoresMissingFiles() throws Exception {
+        File file = new File(dir, "file.txt");
+        Files.writeString(file.toPath(), "content");
+
+        DeleteFiles.Result result = DeleteFiles.delete(FilePath.localChannel, List.of(file.getAbsolutePath(), file.getAbsolutePath()));
+        assertEquals(1, result.getDeleted());
+        assertTrue(result.getFailures().isEmpty());
+        assertNull(result.describeFailures());
+
+        assertEquals(0, DeleteFiles.delete(FilePath.localChannel, List.of()).getDeleted());
+    }
+}
@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.configfiles.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.ExtensionList;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.ItemGroup;
+import hudson.util.Secret;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.buildwrapper.ConfigFileBuildWrapper;
+import org.jenkinsci.plugins.configfiles.buildwrapper.ManagedFile;
+import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
+import org.jenkinsci.plugins.configfiles.custom.security.CustomizedCredentialMapping;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.springframework.security.core.Authentication;
+
+@WithJenkins
+class RunResolutionCacheTest {
+
+    @Test
+    void configsAreResolvedOncePerRunningBuild(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new CustomConfig("id", "name", "comment", "first"));
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                Config resolved = RunResolutionCache.getConfigs(build, List.of("id", "unknown")).get("id");
+                GlobalConfigFiles.get().save(new CustomConfig("id", "name", "comment", "second"));
+                assertSame(resolved, RunResolutionCache.getConfigs(build, List.of("id")).get("id"));
+                assertEquals(1, RunResolutionCache.getConfigs(build, List.of("id", "unknown")).size());
+                return true;
+            }
+        });
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        // no longer running
+        assertEquals("second", RunResolutionCache.getConfigs(build, List.of("id")).get("id").content);
+    }
+
+    @Test
+    void credentialsAreLookedUpOncePerRunningBuild(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new CustomConfig("id", "name", "comment", "${first} ${second}", List.of(
+                new CustomizedCredentialMapping("first", "first-creds"),
+                new CustomizedCredentialMapping("second", "second-creds"))));
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        // masks the credentials in the log (createLoggerDecorator), then provides the file (setUp)
+        p.getBuildWrappersList().add(new ConfigFileBuildWrapper(List.of(new ManagedFile("id", "file.txt", null))));
+        CountingCredentialsProvider provider = ExtensionList.lookupSingleton(CountingCredentialsProvider.class);
+        provider.lookups.set(0);
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        assertEquals("first-secret second-secret", build.getWorkspace().child("file.txt").readToString());
+        assertEquals(1, provider.lookups.get());
+    }
+
+    @TestExtension("credentialsAreLookedUpOncePerRunningBuild")
+    public static final class CountingCredentialsProvider extends CredentialsProvider {
+
+        final AtomicInteger lookups = new AtomicInteger();
+
+        @NonNull
+        @Override
+        public <C extends Credentials> List<C> getCredentialsInItemGroup(@NonNull Class<C> type, @Nullable ItemGroup itemGroup,
+                                                                          @Nullable Authentication authentication,
+                                                                          @NonNull List<DomainRequirement> domainRequirements) {
+            lookups.incrementAndGet();
+            List<C> found = new ArrayList<>();
+            for (String id : List.of("first-creds", "second-creds")) {
+                Credentials credentials = new StringCredentialsImpl(CredentialsScope.GLOBAL, id, null,
+                        Secret.fromString(id.replace("-creds", "-secret")));
+                if (type.isInstance(credentials)) {
+                    found.add(type.cast(credentials));
+                }
+            }
+            return found;
+        }
+    }
+}
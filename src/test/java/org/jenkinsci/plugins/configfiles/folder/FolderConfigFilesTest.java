@@ -1,12 +1,25 @@
 package org.jenkinsci.plugins.configfiles.folder;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.cloudbees.hudson.plugins.folder.Folder;
+import java.io.StringReader;
+import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jenkinsci.plugins.configfiles.ConfigFileStore;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.custom.CustomConfig;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -33,4 +46,57 @@ class FolderConfigFilesTest {
         Collection<Config> configs = store.getConfigs();
         assertThat(configs, hasSize(2));
     }
+
+    @Test
+    void configFilesAreStoredInTheFolderConfiguration(JenkinsRule j) throws Exception {
+        Folder folder = j.jenkins.createProject(Folder.class, "folder");
+        folder.addProperty(new FolderConfigFileProperty(List.of(new CustomConfig("one", "name", "comment", "content one"))));
+        folder.getProperties().get(FolderConfigFileProperty.class).save(new CustomConfig("two", "name", "comment", "content two"));
+        String xml = folder.getConfigFile().asString();
+        assertThat(xml, containsString("content one"));
+        assertThat(xml, containsString("content two"));
+
+        folder.doReload();
+        folder = (Folder) j.jenkins.getItemByFullName("folder");
+        FolderConfigFileProperty property = folder.getProperties().get(FolderConfigFileProperty.class);
+        // only unmarshalled on first access, saved the same way
+        assertNull(getSnapshot(property));
+        folder.save();
+        assertThat(folder.getConfigFile().asString(), containsString("content one"));
+        assertThat(folder.getConfigFile().asString(), containsString("content two"));
+        assertThat(property.getConfigs(), hasSize(2));
+        assertEquals("content one", property.getById("one").content);
+
+        Folder copy = j.jenkins.copy(folder, "copy");
+        FolderConfigFileProperty copied = copy.getProperties().get(FolderConfigFileProperty.class);
+        assertThat(copied.getConfigs(), hasSize(2));
+        copied.remove("one");
+        assertThat(folder.getProperties().get(FolderConfigFileProperty.class).getConfigs(), hasSize(2));
+
+        // as when posting the folder configuration through the REST API
+        copy.updateByXml((Source) new StreamSource(new StringReader(xml)));
+        assertThat(copy.getProperties().get(FolderConfigFileProperty.class).getConfigs(), hasSize(2));
+    }
+
+    @Test
+    void getConfigsReturnsACopyInEveryStore(JenkinsRule j) throws Exception {
+        Folder folder = j.jenkins.createProject(Folder.class, "folder");
+        folder.addProperty(new FolderConfigFileProperty(List.of(new CustomConfig("one", "name", "comment", "content one"))));
+        GlobalConfigFiles.get().save(new CustomConfig("one", "name", "comment", "content one"));
+
+        for (ConfigFileStore store : List.of(folder.getProperties().get(FolderConfigFileProperty.class), GlobalConfigFiles.get())) {
+            Collection<Config> configs = store.getConfigs();
+            assertThat(configs, instanceOf(TreeSet.class));
+            configs.add(new CustomConfig("two", "name", "comment", "content two"));
+            configs.clear();
+            assertThat(store.getConfigs(), hasSize(1));
+            assertThrows(UnsupportedOperationException.class, () -> store.getConfigs(CustomConfig.CustomConfigProvider.class).clear());
+        }
+    }
+
+    private static Object getSnapshot(FolderConfigFileProperty property) throws Exception {
+        Field snapshot = FolderConfigFileProperty.class.getDeclaredField("snapshot");
+        snapshot.setAccessible(true);
+        return snapshot.get(property);
+    }
 }
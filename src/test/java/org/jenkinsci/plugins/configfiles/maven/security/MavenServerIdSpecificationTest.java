@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.configfiles.maven.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.cloudbees.plugins.credentials.domains.DomainSpecification.Result;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOCase;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class MavenServerIdSpecificationTest {
+
+    private static final String[] PATTERNS = {
+            null, "", " , ", "repo", "REPO", "repo-*", "*-snapshots", "*", "**", "?", "repo-?", "r*o", "r*p*o",
+            "*?", "*??*", "a*?b", "repo-*,mirror", "mirror\nrepo-1 central", "*epo*", "re?o-*-s"
+    };
+
+    private static final String[] SERVER_IDS = {
+            null, "", "repo", "Repo", "repo-1", "REPO-12", "repo-1-s", "releases-snapshots", "mirror", "central",
+            "r", "ro", "rpo", "a-b", "ab", "axb", "x"
+    };
+
+    @Test
+    void matchesLikeFilenameUtils(JenkinsRule j) {
+        for (String includes : PATTERNS) {
+            for (String excludes : PATTERNS) {
+                MavenServerIdSpecification specification = new MavenServerIdSpecification(includes, excludes);
+                for (String serverId : SERVER_IDS) {
+                    assertEquals(legacy(includes, excludes, serverId),
+                            specification.test(new MavenServerIdRequirement(serverId)),
+                            "includes " + includes + ", excludes " + excludes + ", serverId " + serverId);
+                }
+            }
+        }
+    }
+
+    @Test
+    void matcherIsRebuiltWhenLoaded(JenkinsRule j) {
+        String xml = Jenkins.XSTREAM2.toXML(new MavenServerIdSpecification("repo-*", "repo-excluded"));
+        MavenServerIdSpecification specification = (MavenServerIdSpecification) Jenkins.XSTREAM2.fromXML(xml);
+        assertEquals(Result.PARTIAL, specification.test(new MavenServerIdRequirement("Repo-1")));
+        assertEquals(Result.NEGATIVE, specification.test(new MavenServerIdRequirement("repo-excluded")));
+        assertEquals(Result.NEGATIVE, specification.test(new MavenServerIdRequirement("central")));
+    }
+
+    /**
+     * The matching before the patterns were compiled.
+     */
+    private static Result legacy(String includes, String excludes, String serverId) {
+        if (includes != null) {
+            boolean isInclude = false;
+            for (String include : includes.split("[,\\n ]")) {
+                if (!include.isBlank() && FilenameUtils.wildcardMatch(serverId, include.trim(), IOCase.INSENSITIVE)) {
+                    isInclude = true;
+                    break;
+                }
+            }
+            if (!isInclude) {
+                return Result.NEGATIVE;
+            }
+        }
+        if (excludes != null) {
+            for (String exclude : excludes.split("[,\\n ]")) {
+                if (!exclude.isBlank() && FilenameUtils.wildcardMatch(serverId, exclude.trim(), IOCase.INSENSITIVE)) {
+                    return Result.NEGATIVE;
+                }
+            }
+        }
+        return Result.PARTIAL;
+    }
+}
@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.configfiles.maven.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+@WithJenkins
+class SettingsServersRewriterTest {
+
+    private static final String SETTINGS = "<settings>\n"
+            + "    <!-- servers -->\n"
+            + "    <servers>\n"
+            + "        <server><id>a</id><filePermissions>1</filePermissions><directoryPermissions>2</directoryPermissions>"
+            + "<configuration><x>&amp;</x></configuration></server>\n"
+            + "        <server>\n"
+            + "            <ID> b </ID>\n"
+            + "            <username>u</username>\n"
+            + "        </server>\n"
+            + "        <server><id><![CDATA[c]]></id><!-- c --><?pi x?></server>\n"
+            + "        <server><id>a</id><username>duplicate</username><configuration>last</configuration></server>\n"
+            + "        <other>text</other>\n"
+            + "        loose text\n"
+            + "    </servers>\n"
+            + "    <servers><server><id>a</id></server></servers>\n"
+            + "</settings>\n";
+
+    @Test
+    void rewritesLikeTheDom(JenkinsRule j) throws Exception {
+        List<String> contents = List.of(
+                IOUtils.toString(SettingsServersRewriterTest.class.getResourceAsStream("/settings_test.xml")),
+                SETTINGS,
+                "<settings xmlns=\"http://maven.apache.org/SETTINGS/1.0.0\"><mirrors/></settings>",
+                "<settings/>",
+                "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<settings><servers/></settings>",
+                "<settings><profiles><servers><server><id>a</id></server></servers></profiles>"
+                        + "<servers><server><foo/><id></id><id>a</id></server><server><bar><id>a</id></bar></server></servers></settings>");
+
+        Map<String, StandardUsernameCredentials> credentials = new LinkedHashMap<>();
+        credentials.put("a", new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "a", null, "alice", "p<&>\"'"));
+        credentials.put("my.server", new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "my", null, "peter", "pwd"));
+        credentials.put("jenkins-39991", new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, "key", "git",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource("private key"), "passphrase", null));
+        credentials.put("c", new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "c", null, "carl", ""));
+        credentials.put("new", new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "new", null, "nina", "pwd"));
+
+        for (String content : contents) {
+            for (boolean replaceAll : new boolean[] {false, true}) {
+                List<String> tempFiles = new ArrayList<>();
+                ServerDefinitions definitions = new ServerDefinitions(credentials, j.jenkins.createPath("tmp"), tempFiles);
+                String streamed = SettingsServersRewriter.rewrite(content, replaceAll, credentials.keySet(), definitions);
+                assertNotNull(streamed, content);
+                String dom = CredentialsHelper.fillAuthenticationWithDom(content, replaceAll, credentials.keySet(), definitions);
+                assertEquals(normalize(dom), normalize(streamed), content);
+                assertEquals(1, tempFiles.size(), "the private key is written once");
+            }
+        }
+    }
+
+    @Test
+    void keepsTheFormattingOfTheSettings(JenkinsRule j) throws Exception {
+        Map<String, StandardUsernameCredentials> credentials = Map.of(
+                "b", new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "b", null, "bob", "pwd"));
+        String rewritten = CredentialsHelper.fillAuthentication(SETTINGS, false, credentials, j.jenkins.createPath("tmp"), new ArrayList<>());
+
+        assertTrue(rewritten.contains("    <!-- servers -->\n    <servers>\n        <server><id>a</id><filePermissions>1</filePermissions>"), rewritten);
+        assertTrue(rewritten.contains("        <server>\n            <id>b</id>\n            <username>bob</username>\n"
+                + "            <password>pwd</password>\n        </server>\n    </servers>\n"), rewritten);
+    }
+
+    @Test
+    void leavesOtherDocumentsToTheDom(JenkinsRule j) throws Exception {
+        Map<String, StandardUsernameCredentials> credentials = Map.of(
+                "a", new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "a", null, "alice", "pwd"));
+        for (String content : List.of("<project/>", "<!DOCTYPE settings><settings/>", "<settings><servers></settings>")) {
+            ServerDefinitions definitions = new ServerDefinitions(credentials, j.jenkins.createPath("tmp"), new ArrayList<>());
+            assertNull(SettingsServersRewriter.rewrite(content, true, credentials.keySet(), definitions), content);
+        }
+    }
+
+    /**
+     * @return the document without formatting
+     */
+    private static String normalize(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setCoalescing(true);
+        StringBuilder normalized = new StringBuilder();
+        normalize(factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml))), normalized);
+        return normalized.toString();
+    }
+
+    private static void normalize(Node node, StringBuilder normalized) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    Map<String, String> attributes = new TreeMap<>();
+                    NamedNodeMap map = child.getAttributes();
+                    for (int i = 0; i < map.getLength(); i++) {
+                        attributes.put(map.item(i).getNodeName(), map.item(i).getNodeValue());
+                    }
+                    normalized.append('<').append(child.getNodeName()).append(attributes).append('>');
+                    normalize(child, normalized);
+                    normalized.append("</").append(child.getNodeName()).append('>');
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    String text = child.getNodeValue().trim();
+                    if (!text.isEmpty()) {
+                        normalized.append('"').append(text).append('"');
+                    }
+                    break;
+                default:
+                    normalized.append('[').append(child.getNodeName()).append(':').append(child.getNodeValue()).append(']');
+                    break;
+            }
+        }
+    }
+}
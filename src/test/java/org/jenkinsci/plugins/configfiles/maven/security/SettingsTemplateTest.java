@@ -0,0 +1,30 @@
+package org.jenkinsci.plugins.configfiles.maven.security;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class SettingsTemplateTest {
+
+    private static final String SETTINGS = "<settings>\n"
+            + "    <servers>\n"
+            + "        <server><id>a</id><configuration>kept</configuration></server>\n"
+            + "    </servers>\n"
+            + "</settings>\n";
+
+    @Test
+    void templatesAreCachedByIdAndContent() {
+        SettingsServersRewriter rewriter = SettingsTemplate.of("id", SETTINGS);
+        assertSame(rewriter, SettingsTemplate.of("id", new String(SETTINGS)));
+        assertNotSame(rewriter, SettingsTemplate.of("other", SETTINGS));
+        assertNotSame(rewriter, SettingsTemplate.of("id", "<settings/>"));
+        assertNotSame(rewriter, SettingsTemplate.of("id", SETTINGS));
+    }
+
+    @Test
+    void unsupportedSettingsAreCachedToo() {
+        SettingsServersRewriter rewriter = SettingsTemplate.of("unsupported", "<project/>");
+        assertSame(rewriter, SettingsTemplate.of("unsupported", "<project/>"));
+    }
+}